@@ -179,6 +179,7 @@ public class CountDownLatch {
 
         Sync(int count) {
             setState(count);
+            enableBulkSharedRelease();
         }
 
         int getCount() {
@@ -37,6 +37,7 @@ package java.util.concurrent.locks;
 
 import sun.misc.Unsafe;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -53,6 +54,10 @@ import java.util.concurrent.TimeUnit;
  * multilevel locks and barriers that require
  * 64 bits of state.
  *
+ * <p>Where hold times are known to be very short, a subclass may
+ * install a {@link WaitStrategy} using {@link #setWaitStrategy},
+ * allowing the first queued thread to spin rather than block.
+ *
  * <p>See {@link AbstractQueuedSynchronizer} for usage
  * notes and examples.
  *
@@ -257,6 +262,89 @@ public abstract class AbstractQueuedLongSynchronizer
          */
         Node nextWaiter;
 
+        /**
+         * For a condition node standing for a thread waiting on
+         * several conditions at once (a proxy), the node of that wait
+         * that is transferred to the sync queue when any of its
+         * proxies is signalled; otherwise null.  Each proxy is linked
+         * into the queue of one condition, while the principal node
+         * itself is on no condition queue.  Proxies are accessed only
+         * when holding in exclusive mode.
+         */
+        Node principal;
+
+        /**
+         * True if this condition node's cancelled wait has been
+         * counted in its ConditionObject's cancelledWaiters, so is
+         * to be discounted when the node is unlinked by a signal.
+         * Accessed only when holding in exclusive mode.
+         */
+        boolean cancelCounted;
+
+        /**
+         * Set by the thread that dequeued this node, once it no
+         * longer accesses it.  Used only by synchronizers recycling
+         * nodes, to tell the thread that created the node that it
+         * may be reused.
+         */
+        volatile boolean retired;
+
+        /**
+         * The number of nodes enqueued before this one since the
+         * queue was initialized, excluding those removed again as
+         * cancelled tails.  Set before the node is enqueued, so
+         * stable once it is reachable from the tail.  Used to compute
+         * the queue length.
+         */
+        long seq;
+
+        /** grant value to indicate a bulk release is acquiring for node */
+        static final int CLAIMED   =  1;
+        /** grant value to indicate node acquired by a bulk release */
+        static final int GRANTED   =  2;
+        /** grant value to indicate node's thread is giving up */
+        static final int ABANDONED = -1;
+        /**
+         * grant value to indicate that an asynchronous node should be
+         * retried by the thread that has claimed it
+         */
+        static final int RETRY     =  3;
+
+        /**
+         * Status of a shared-mode node with respect to bulk release,
+         * or of an asynchronous node, taking on the values 0,
+         * CLAIMED, GRANTED, ABANDONED and RETRY.  Set to CLAIMED (by
+         * CAS from 0) by a thread acquiring on behalf of the node,
+         * and then to GRANTED or back to 0; set to ABANDONED (by CAS
+         * from 0) by a shared node's thread before cancelling; set to
+         * RETRY (by CAS from CLAIMED) by a thread finding an
+         * asynchronous node claimed by another.
+         */
+        volatile int grant;
+
+        /**
+         * The time, per System.nanoTime, at which the node was last
+         * enqueued, if enqueue times are recorded.
+         */
+        long enqueueTime;
+
+        /** The acquire argument of a shared-mode or asynchronous node. */
+        long arg;
+
+        /**
+         * The action to run upon acquiring, for an asynchronous node,
+         * which has no thread.  Nulled out after use.
+         */
+        Runnable callback;
+
+        /**
+         * The acquire priority, and the deadline of a timed acquire
+         * (zero if none), of an exclusive-mode node.  Set before the
+         * node is enqueued, and used only under a QueueOrdering.
+         */
+        int priority;
+        long deadline;
+
         /**
          * Returns true if node is waiting in shared mode
          */
@@ -291,6 +379,21 @@ public abstract class AbstractQueuedLongSynchronizer
             this.waitStatus = waitStatus;
             this.thread = thread;
         }
+
+        /**
+         * Reinitializes a retired node for reuse by its creator. The
+         * node is not visible to other threads until enqueued.
+         */
+        final void reuse(Thread thread, Node mode, int waitStatus) {
+            this.retired = false;
+            this.cancelCounted = false;
+            this.grant = 0;
+            this.waitStatus = waitStatus;
+            this.prev = null;
+            this.next = null;
+            this.nextWaiter = mode;
+            this.thread = thread;
+        }
     }
 
     /**
@@ -307,11 +410,63 @@ public abstract class AbstractQueuedLongSynchronizer
      */
     private transient volatile Node tail;
 
+    /**
+     * The number of cancelled nodes lying between head and tail,
+     * maintained so that the queue length can be computed from the
+     * difference of their sequence numbers without traversal.
+     * Incremented in cancelAcquire, and decremented upon removing
+     * cancelled nodes as tail, or passing them when setting head.
+     */
+    private transient volatile int cancelledNodes;
+
     /**
      * The synchronization state.
      */
     private volatile long state;
 
+    /**
+     * Strategy consulted by the first queued thread before blocking,
+     * or null to always block.
+     */
+    private transient volatile WaitStrategy waitStrategy;
+
+    /**
+     * Contention statistics, or null if monitoring is not enabled.
+     */
+    private transient volatile ContentionStatistics contentionStatistics;
+
+    /**
+     * True if nodes are recycled. Set only before use, by subclass
+     * constructors, so need not be volatile.
+     */
+    private transient boolean recycleNodes;
+
+    /**
+     * True if shared releases are propagated in bulk. Set only
+     * before use, by subclass constructors, so need not be volatile.
+     */
+    private transient boolean bulkSharedRelease;
+
+    /**
+     * True if nodes record their enqueue times. Set only before use,
+     * by subclass constructors, so need not be volatile.
+     */
+    private transient boolean enqueueTimes;
+
+    /**
+     * The ordering of exclusive waiters, or null for FIFO. Set only
+     * before use, by subclass constructors, so need not be volatile.
+     */
+    private transient QueueOrdering queueOrdering;
+
+    /**
+     * The exclusive-mode node chosen under a QueueOrdering to acquire
+     * next, or null if none, in which case the first queued node may
+     * acquire as usual.  Set upon release by selectSuccessor, and
+     * cleared by the chosen node's thread once it acquires.
+     */
+    private transient volatile Node selected;
+
     /**
      * Returns the current value of synchronization state.
      * This operation has memory semantics of a <tt>volatile</tt> read.
@@ -321,6 +476,18 @@ public abstract class AbstractQueuedLongSynchronizer
         return state;
     }
 
+    /**
+     * Returns the current value of synchronization state, for use in
+     * validating a sequence of reads against an earlier read of
+     * state.  This is a volatile read, which orders only the
+     * preceding volatile reads before it: the preceding plain reads
+     * may be reordered after it, and without a load fence nothing
+     * here prevents that.  Used only by StampedLock.
+     */
+    final long getStateForValidation() {
+        return state;
+    }
+
     /**
      * Sets the value of synchronization state.
      * This operation has memory semantics of a <tt>volatile</tt> write.
@@ -346,8 +513,312 @@ public abstract class AbstractQueuedLongSynchronizer
         return unsafe.compareAndSwapLong(this, stateOffset, expect, update);
     }
 
+    // State field updates; see StateLayout
+
+    /**
+     * Atomically adds the given amount to the given field of
+     * synchronization state, leaving other fields unchanged.  This
+     * operation has memory semantics of a <tt>volatile</tt> read
+     * and write.
+     *
+     * @param field the field
+     * @param delta the amount to add, which may be negative
+     * @return the previous state
+     * @throws Error if the field would exceed its maximum or become
+     *         negative, in which case the state is unchanged
+     */
+    protected final long getAndAddField(StateLayout.Field field,
+                                        long delta) {
+        for (;;) {
+            long s = state;
+            if (unsafe.compareAndSwapLong(this, stateOffset, s,
+                                          field.add(s, delta)))
+                return s;
+        }
+    }
+
+    /**
+     * Atomically adds the given amounts to the given fields of
+     * synchronization state, leaving other fields unchanged.  Either
+     * both fields are updated or, if either would overflow, neither
+     * is.  This operation has memory semantics of a
+     * <tt>volatile</tt> read and write.
+     *
+     * @param field1 the first field
+     * @param delta1 the amount to add to the first field
+     * @param field2 the second field
+     * @param delta2 the amount to add to the second field
+     * @return the previous state
+     * @throws Error if either field would exceed its maximum or become
+     *         negative, in which case the state is unchanged
+     */
+    protected final long getAndAddFields(StateLayout.Field field1,
+                                         long delta1,
+                                         StateLayout.Field field2,
+                                         long delta2) {
+        for (;;) {
+            long s = state;
+            long next = field2.add(field1.add(s, delta1), delta2);
+            if (unsafe.compareAndSwapLong(this, stateOffset, s, next))
+                return s;
+        }
+    }
+
+    /**
+     * Atomically adds the given amount to a field of synchronization
+     * state if, and only if, another field (or the same one) has the
+     * expected value, leaving other fields unchanged.  The caller
+     * determines whether the update was performed by checking the
+     * guard field of the returned state.  This operation has memory
+     * semantics of a <tt>volatile</tt> read, and if the update is
+     * performed, write.
+     *
+     * @param guard the field whose value is checked
+     * @param expect the value that the guard field must have
+     * @param field the field to update
+     * @param delta the amount to add, which may be negative
+     * @return the previous state if the update was performed, else
+     *         a state in which the guard field did not have the
+     *         expected value
+     * @throws Error if the updated field would exceed its maximum or
+     *         become negative, in which case the state is unchanged
+     */
+    protected final long getAndAddFieldIf(StateLayout.Field guard,
+                                          long expect,
+                                          StateLayout.Field field,
+                                          long delta) {
+        for (;;) {
+            long s = state;
+            if (guard.get(s) != expect ||
+                unsafe.compareAndSwapLong(this, stateOffset, s,
+                                          field.add(s, delta)))
+                return s;
+        }
+    }
+
+    /**
+     * Atomically sets the given field of synchronization state to
+     * the given updated value if its current value equals the
+     * expected value, leaving other fields unchanged.  Unlike {@link
+     * #compareAndSetState}, this does not fail spuriously when other
+     * fields change concurrently; it retries until the field is seen
+     * to differ from the expected value.  This operation has memory
+     * semantics of a <tt>volatile</tt> read and write.
+     *
+     * @param field the field
+     * @param expect the expected value of the field
+     * @param update the new value of the field
+     * @return true if successful. False return indicates that the
+     *         field's value was not equal to the expected value.
+     * @throws IllegalArgumentException if the update is out of range
+     *         for the field
+     */
+    protected final boolean compareAndSetField(StateLayout.Field field,
+                                               long expect, long update) {
+        long bits = field.set(0L, update);
+        long mask = field.getMask();
+        for (;;) {
+            long s = state;
+            if (field.get(s) != expect)
+                return false;
+            if (unsafe.compareAndSwapLong(this, stateOffset, s,
+                                          (s & ~mask) | bits))
+                return true;
+        }
+    }
+
+    /**
+     * Returns the strategy used by the first queued thread to decide
+     * whether to block after a failed acquire.
+     *
+     * @return the wait strategy
+     */
+    protected final WaitStrategy getWaitStrategy() {
+        WaitStrategy s = waitStrategy;
+        return (s == null) ? WaitStrategy.park() : s;
+    }
+
+    /**
+     * Sets the strategy used by the first queued thread to decide
+     * whether to block after a failed acquire.  The strategy is not
+     * serialized, so subclasses that set it in their constructors
+     * and are serializable will typically also reset it in a
+     * <tt>readObject</tt> method.
+     *
+     * @param strategy the wait strategy
+     * @throws NullPointerException if strategy is null
+     */
+    protected final void setWaitStrategy(WaitStrategy strategy) {
+        if (strategy == null)
+            throw new NullPointerException();
+        waitStrategy = strategy;
+    }
+
+    /**
+     * Enables recycling of wait queue nodes, so that contended
+     * acquires and condition waits by a thread normally reuse nodes
+     * previously created by that thread rather than allocating new
+     * ones.  This reduces garbage generation for heavily contended
+     * synchronizers, at the expense of some additional wakeups of
+     * queued threads.  This method must be invoked before the
+     * synchronizer is used by more than one thread, typically in a
+     * subclass constructor.  Node recycling is not serialized.
+     */
+    protected final void enableNodeRecycling() {
+        recycleNodes = true;
+    }
+
+    /**
+     * Enables bulk propagation of shared acquires.  Normally, when a
+     * shared acquire succeeds and indicates that subsequent shared
+     * acquires may also succeed, the acquiring thread wakes only the
+     * next queued thread, which must be scheduled and acquire before
+     * waking the one after it, so that the last of many waiting
+     * threads resumes only after all of the others have.  In bulk
+     * mode, the acquiring thread instead invokes {@link
+     * #tryAcquireShared} on behalf of each thread in the run of
+     * shared-mode waiters following it, for as long as these invocations
+     * succeed and indicate further propagation, then removes the
+     * whole run from the queue, and unblocks all of their threads
+     * itself.  This is intended for synchronizers such as latches and
+     * barriers that release many waiting threads at once.
+     *
+     * <p>Bulk mode may be enabled only for synchronizers whose
+     * {@code tryAcquireShared} does not depend on the identity of
+     * the calling thread.  If an invocation on behalf of another
+     * thread throws an exception, propagation stops and that thread
+     * retries the acquire itself.  This method must be invoked
+     * before the synchronizer is used by more than one thread,
+     * typically in a subclass constructor.  Bulk mode is not
+     * serialized.
+     */
+    protected final void enableBulkSharedRelease() {
+        bulkSharedRelease = true;
+    }
+
+    /**
+     * Enables recording of the time at which each node enters the
+     * wait queue, as reported by {@link #getFirstQueuedWaitNanos}.
+     * This adds a call to {@link System#nanoTime} to each contended
+     * acquire.  This method must be invoked before the synchronizer
+     * is used by more than one thread, typically in a subclass
+     * constructor.  Recording is not serialized.
+     */
+    protected final void enableEnqueueTimes() {
+        enqueueTimes = true;
+    }
+
+    /**
+     * Returns the order in which threads waiting in exclusive mode
+     * acquire.
+     *
+     * @return the queue ordering
+     */
+    protected final QueueOrdering getQueueOrdering() {
+        QueueOrdering o = queueOrdering;
+        return (o == null) ? QueueOrdering.FIFO : o;
+    }
+
+    /**
+     * Sets the order in which threads waiting in exclusive mode
+     * acquire.  Under orderings other than {@link QueueOrdering#FIFO},
+     * the thread chosen upon each release may acquire although other
+     * threads are queued ahead of it, and so is the only thread for
+     * which {@link #hasQueuedPredecessors} returns {@code false} until
+     * it does so.  This method must be invoked before the synchronizer
+     * is used by more than one thread, typically in a subclass
+     * constructor.  The ordering is not serialized.
+     *
+     * @param ordering the queue ordering
+     * @throws NullPointerException if ordering is null
+     */
+    protected final void setQueueOrdering(QueueOrdering ordering) {
+        if (ordering == null)
+            throw new NullPointerException();
+        queueOrdering = (ordering == QueueOrdering.FIFO) ? null : ordering;
+    }
+
     // Queuing utilities
 
+    /*
+     * Node recycling.  Each thread keeps a small cache of nodes it
+     * created for use with recycling synchronizers.  A node may be
+     * reused only after it has been dequeued, and the dequeuing
+     * thread has marked it retired.  Nodes of cancelled acquires and
+     * cancelled condition waits are never reused, as they may remain
+     * linked from other nodes or condition queues.
+     *
+     * Other threads may still hold stale references to a retired
+     * node, for example a releasing thread that read head just
+     * before it changed.  So when recycling, those operations on
+     * nodes that would be harmful if applied to a reused node are
+     * disabled: releases do not reset SIGNAL status (so the
+     * successor of a reused node is never denied a signal, at the
+     * price of occasional redundant unparks), and cancellation does
+     * not set a predecessor's null next link (so it cannot install a
+     * next link in a reused node that has since become the tail).
+     * All remaining stale operations on a reused node can only set
+     * SIGNAL or PROPAGATE status, or unpark some thread, each of
+     * which is already tolerated as a spurious wakeup.
+     */
+
+    /** Number of nodes cached per thread */
+    static final int NODE_CACHE_SIZE = 4;
+
+    /** Per-thread node caches for recycling synchronizers */
+    private static final ThreadLocal<Node[]> nodeCache =
+        new ThreadLocal<Node[]>() {
+            protected Node[] initialValue() {
+                return new Node[NODE_CACHE_SIZE];
+            }
+        };
+
+    /**
+     * Returns a node for the current thread, reusing a retired one
+     * if recycling.
+     *
+     * @param mode Node.EXCLUSIVE for exclusive, Node.SHARED for shared
+     * @param waitStatus the initial waitStatus, 0 or CONDITION
+     * @return the node
+     */
+    private Node newNode(Node mode, int waitStatus) {
+        Thread current = Thread.currentThread();
+        if (recycleNodes) {
+            Node[] cache = nodeCache.get();
+            for (int i = 0; i < cache.length; ++i) {
+                Node n = cache[i];
+                if (n == null) {
+                    n = cache[i] = new Node(current, mode);
+                    if (waitStatus != 0)
+                        n.waitStatus = waitStatus;
+                    return n;
+                }
+                if (n.retired) {
+                    n.reuse(current, mode, waitStatus);
+                    return n;
+                }
+            }
+        }
+        return (waitStatus == 0) ? new Node(current, mode) :
+            new Node(current, waitStatus);
+    }
+
+    /**
+     * Ensures that the given node of the current thread is never
+     * reused, because it was cancelled.
+     */
+    private void evictNode(Node node) {
+        if (recycleNodes) {
+            Node[] cache = nodeCache.get();
+            for (int i = 0; i < cache.length; ++i) {
+                if (cache[i] == node) {
+                    cache[i] = null;
+                    break;
+                }
+            }
+        }
+    }
+
     /**
      * The number of nanoseconds for which it is faster to spin
      * rather than to use timed park. A rough estimate suffices
@@ -355,12 +826,23 @@ public abstract class AbstractQueuedLongSynchronizer
      */
     static final long spinForTimeoutThreshold = 1000L;
 
+    /**
+     * The longest timeout, in nanoseconds, reflected in the deadline
+     * of a timed acquire.  Deadlines are compared by difference, as
+     * are nanoTime values, so longer timeouts are treated as equal to
+     * this one (about 146 years) rather than allowed to overflow and
+     * appear earliest.
+     */
+    static final long maxDeadlineNanos = Long.MAX_VALUE >>> 1;
+
     /**
      * Inserts node into queue, initializing if necessary. See picture above.
      * @param node the node to insert
      * @return node's predecessor
      */
     private Node enq(final Node node) {
+        if (enqueueTimes)
+            node.enqueueTime = System.nanoTime();
         for (;;) {
             Node t = tail;
             if (t == null) { // Must initialize
@@ -368,6 +850,7 @@ public abstract class AbstractQueuedLongSynchronizer
                     tail = head;
             } else {
                 node.prev = t;
+                node.seq = t.seq + 1;
                 if (compareAndSetTail(t, node)) {
                     t.next = node;
                     return t;
@@ -383,11 +866,35 @@ public abstract class AbstractQueuedLongSynchronizer
      * @return the new node
      */
     private Node addWaiter(Node mode) {
-        Node node = new Node(Thread.currentThread(), mode);
+        return addWaiter(mode, NO_PRIORITY, 0L);
+    }
+
+    /** Priority argument to addWaiter meaning the thread's priority */
+    private static final int NO_PRIORITY = Integer.MIN_VALUE;
+
+    /**
+     * Creates and enqueues node for current thread and given mode,
+     * with the given priority and deadline for use by a QueueOrdering.
+     *
+     * @param mode Node.EXCLUSIVE for exclusive, Node.SHARED for shared
+     * @param priority the acquire priority, or NO_PRIORITY
+     * @param deadline the deadline, or zero if none
+     * @return the new node
+     */
+    private Node addWaiter(Node mode, int priority, long deadline) {
+        Node node = newNode(mode, 0);
+        if (queueOrdering != null) {
+            node.priority = (priority == NO_PRIORITY) ?
+                Thread.currentThread().getPriority() : priority;
+            node.deadline = deadline;
+        }
+        if (enqueueTimes)
+            node.enqueueTime = System.nanoTime();
         // Try the fast path of enq; backup to full enq on failure
         Node pred = tail;
         if (pred != null) {
             node.prev = pred;
+            node.seq = pred.seq + 1;
             if (compareAndSetTail(pred, node)) {
                 pred.next = node;
                 return node;
@@ -400,14 +907,30 @@ public abstract class AbstractQueuedLongSynchronizer
     /**
      * Sets head of queue to be node, thus dequeuing. Called only by
      * acquire methods.  Also nulls out unused fields for sake of GC
-     * and to suppress unnecessary signals and traversals.
+     * and to suppress unnecessary signals and traversals, and
+     * discounts any cancelled nodes between the old head and node,
+     * which are dequeued along with it.
      *
      * @param node the node
      */
     private void setHead(Node node) {
+        int skipped = (int)(node.seq - head.seq) - 1;
         head = node;
         node.thread = null;
         node.prev = null;
+        if (skipped > 0)
+            addCancelledNodes(-skipped);
+    }
+
+    /**
+     * Atomically adds delta to cancelledNodes.
+     */
+    private void addCancelledNodes(int delta) {
+        int c;
+        do {
+            c = cancelledNodes;
+        } while (!unsafe.compareAndSwapInt(this, cancelledNodesOffset,
+                                           c, c + delta));
     }
 
     /**
@@ -419,10 +942,12 @@ public abstract class AbstractQueuedLongSynchronizer
         /*
          * If status is negative (i.e., possibly needing signal) try
          * to clear in anticipation of signalling.  It is OK if this
-         * fails or if status is changed by waiting thread.
+         * fails or if status is changed by waiting thread.  When
+         * recycling, this might be a stale reference to a reused
+         * node, so don't clear.
          */
         int ws = node.waitStatus;
-        if (ws < 0)
+        if (ws < 0 && !recycleNodes)
             compareAndSetWaitStatus(node, ws, 0);
 
         /*
@@ -438,8 +963,12 @@ public abstract class AbstractQueuedLongSynchronizer
                 if (t.waitStatus <= 0)
                     s = t;
         }
-        if (s != null)
-            LockSupport.unpark(s.thread);
+        if (s != null) {
+            if (s.callback != null)
+                tryAcquireAsync(s);
+            else
+                LockSupport.unpark(s.thread);
+        }
     }
 
     /**
@@ -464,7 +993,8 @@ public abstract class AbstractQueuedLongSynchronizer
             if (h != null && h != tail) {
                 int ws = h.waitStatus;
                 if (ws == Node.SIGNAL) {
-                    if (!compareAndSetWaitStatus(h, Node.SIGNAL, 0))
+                    if (!recycleNodes &&     // see unparkSuccessor
+                        !compareAndSetWaitStatus(h, Node.SIGNAL, 0))
                         continue;            // loop to recheck cases
                     unparkSuccessor(h);
                 }
@@ -486,6 +1016,8 @@ public abstract class AbstractQueuedLongSynchronizer
      * @param propagate the return value from a tryAcquireShared
      */
     private void setHeadAndPropagate(Node node, long propagate) {
+        if (propagate > 0 && bulkSharedRelease && grantShared(node, propagate))
+            return;
         Node h = head; // Record old head for check below
         setHead(node);
         /*
@@ -510,6 +1042,263 @@ public abstract class AbstractQueuedLongSynchronizer
         }
     }
 
+    /**
+     * Acquires in bulk for the run of shared-mode nodes following
+     * node, and if any succeed, sets head to the last of them and
+     * unparks their threads.  Called only by setHeadAndPropagate in
+     * bulk mode, before node is set as head.  Until then, no node
+     * following node can see its predecessor as head, so no other
+     * thread acquires for nodes in the run, and node's thread may
+     * acquire for them after claiming each against concurrent
+     * abandonment.  Because granted threads may still be reading
+     * their nodes' prev links, these are not nulled out, and when
+     * recycling, each granted thread retires its predecessor once it
+     * sees it has been granted, as a thread setting its own node as
+     * head does.  Cancelled nodes passed along the way are discounted
+     * as they are by setHead.  An Error thrown while acquiring on
+     * behalf of another node ends the run, and is rethrown once the
+     * queue is consistent.
+     *
+     * @param node the node that has just acquired
+     * @param propagate the return value from its tryAcquireShared
+     * @return true if any nodes were granted, in which case head has
+     *         been set and the rest of the queue signalled as needed
+     */
+    private boolean grantShared(Node node, long propagate) {
+        Node last = null;
+        int granted = 0;
+        Error error = null;
+        for (Node s = node.next;
+             propagate > 0 && s != null && s.isShared() && s.thread != null &&
+                 compareAndSetGrant(s, 0, Node.CLAIMED);
+             s = s.next) {
+            long r;
+            try {
+                r = tryAcquireSharedFor(s);
+            } catch (Error ex) {
+                error = ex;
+                r = -1;
+            }
+            if (r < 0) {
+                s.grant = 0;
+                break;
+            }
+            last = s;
+            ++granted;
+            propagate = r;
+        }
+        if (last == null) {
+            if (error == null)
+                return false;
+            setHead(node);
+            doReleaseShared();
+            throw error;
+        }
+        // Nodes between head and last other than node and those
+        // granted were cancelled, and are dequeued along with them
+        int skipped = (int)(last.seq - head.seq) - 1 - granted;
+        head = last;
+        node.thread = null;
+        node.prev = null;
+        if (skipped > 0)
+            addCancelledNodes(-skipped);
+        for (Node s = node.next; ; s = s.next) {
+            Thread t = s.thread;
+            s.thread = null;
+            s.grant = Node.GRANTED;
+            LockSupport.unpark(t);
+            if (s == last)
+                break;
+        }
+        doReleaseShared();
+        if (error != null)
+            throw error;
+        return true;
+    }
+
+    /**
+     * Invokes tryAcquireShared on behalf of node's thread, treating
+     * a RuntimeException as failure, to be encountered again by that
+     * thread when it retries.
+     */
+    private long tryAcquireSharedFor(Node node) {
+        try {
+            return tryAcquireShared(node.arg);
+        } catch (RuntimeException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Marks a shared-mode node as abandoned by its thread, unless it
+     * has already been granted by a bulk release, waiting if a bulk
+     * release is currently acquiring for it.
+     *
+     * @param node the node
+     * @return true if abandoned, false if the node was granted, in
+     *         which case the acquire has succeeded
+     */
+    private static boolean abandonShared(Node node) {
+        for (;;) {
+            int g = node.grant;
+            if (g == Node.GRANTED)
+                return false;
+            if (g == Node.ABANDONED ||
+                (g == 0 && compareAndSetGrant(node, 0, Node.ABANDONED)))
+                return true;
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Chooses the exclusive-mode waiter that comes first in the given
+     * ordering to acquire next, and unparks its thread.  If there is
+     * none, clears the choice and wakes the successor of head as
+     * usual.  Called upon release under a QueueOrdering, and when a
+     * chosen node is cancelled.  The choice is rechecked after it is
+     * published, as the chosen node's thread may concurrently be
+     * cancelling, in which case it may not see the choice.
+     *
+     * @param ordering the ordering
+     */
+    private void selectSuccessor(QueueOrdering ordering) {
+        for (;;) {
+            Node h = head;
+            Node best = null;
+            for (Node p = tail; p != null && p != h; p = p.prev) {
+                if (p.thread != null && p.waitStatus <= 0 && !p.isShared() &&
+                    p.callback == null &&
+                    (best == null ||
+                     ordering.precedes(p.priority, p.deadline, p.seq,
+                                       best.priority, best.deadline, best.seq)))
+                    best = p;
+            }
+            if (best == null) {
+                selected = null;
+                if (h != null && h.waitStatus != 0)
+                    unparkSuccessor(h);
+                return;
+            }
+            selected = best;
+            Thread t = best.thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the node of a thread that has acquired out of turn as
+     * the node chosen under a QueueOrdering.  The node is removed as
+     * if cancelled, so that the queue and its length are maintained
+     * as usual, but the choice is first cleared so that no other
+     * node is chosen.
+     *
+     * @param node the node
+     */
+    private void acquiredOutOfTurn(Node node) {
+        selected = null;
+        cancelAcquire(node);
+    }
+
+    /**
+     * Per-thread queues of callbacks of asynchronous acquires that
+     * succeeded while the thread was already running such a callback.
+     */
+    private static final ThreadLocal<ArrayDeque<Runnable>> asyncCallbacks =
+        new ThreadLocal<ArrayDeque<Runnable>>();
+
+    /**
+     * Tries to acquire on behalf of an asynchronous node, as its
+     * thread would if it had one, upon enqueuing it and whenever its
+     * thread would otherwise be unparked.  Only a thread that has
+     * claimed the node may try.  A thread finding the node claimed by
+     * another instead asks the claimant to retry, so that a release
+     * occurring while the claimant tries cannot be missed, as an
+     * unpark before a park is not missed for a waiting thread.  While
+     * trying, the node's thread is set to the current thread, so that
+     * hasQueuedPredecessors treats the current thread as the node's.
+     *
+     * @param node the node
+     */
+    private void tryAcquireAsync(Node node) {
+        for (int g;;) {
+            if ((g = node.grant) == 0) {
+                if (compareAndSetGrant(node, 0, Node.CLAIMED))
+                    break;
+            }
+            else if (g != Node.CLAIMED ||
+                     compareAndSetGrant(node, Node.CLAIMED, Node.RETRY))
+                return;
+        }
+        boolean failed = true;
+        try {
+            for (;;) {
+                final Node p = node.prev;
+                if (p == head && selected == null) {
+                    node.thread = Thread.currentThread();
+                    boolean acquired = tryAcquire(node.arg);
+                    if (acquired) {
+                        setHead(node);
+                        p.next = null; // help GC
+                        if (recycleNodes)
+                            p.retired = true;
+                        Runnable callback = node.callback;
+                        node.callback = null;
+                        node.grant = Node.GRANTED;
+                        failed = false;
+                        runAsyncCallback(callback);
+                        return;
+                    }
+                    node.thread = null;
+                }
+                if (shouldParkAfterFailedAcquire(p, node)) {
+                    if (compareAndSetGrant(node, Node.CLAIMED, 0)) {
+                        failed = false;
+                        return;
+                    }
+                    node.grant = Node.CLAIMED; // was RETRY
+                }
+            }
+        } finally {
+            if (failed) { // tryAcquire threw
+                node.thread = null;
+                node.grant = 0;
+            }
+        }
+    }
+
+    /**
+     * Runs the callback of an asynchronous acquire, unless the current
+     * thread is already running one, in which case it is run after
+     * that one completes, to avoid unbounded recursion when callbacks
+     * release.  Exceptions thrown by callbacks are passed to the
+     * current thread's uncaught exception handler.
+     *
+     * @param callback the callback
+     */
+    private static void runAsyncCallback(Runnable callback) {
+        ArrayDeque<Runnable> q = asyncCallbacks.get();
+        if (q != null) {
+            q.add(callback);
+            return;
+        }
+        asyncCallbacks.set(q = new ArrayDeque<Runnable>());
+        try {
+            do {
+                try {
+                    callback.run();
+                } catch (Throwable ex) {
+                    Thread t = Thread.currentThread();
+                    t.getUncaughtExceptionHandler().uncaughtException(t, ex);
+                }
+            } while ((callback = q.poll()) != null);
+        } finally {
+            asyncCallbacks.remove();
+        }
+    }
+
     // Utilities for various versions of acquire
 
     /**
@@ -523,11 +1312,15 @@ public abstract class AbstractQueuedLongSynchronizer
             return;
 
         node.thread = null;
+        evictNode(node);
+        // Count before others can see node as cancelled and pass it
+        addCancelledNodes(1);
+        // If chosen to acquire next, choose another instead
+        if (selected == node)
+            selectSuccessor(queueOrdering);
 
         // Skip cancelled predecessors
-        Node pred = node.prev;
-        while (pred.waitStatus > 0)
-            node.prev = pred = pred.prev;
+        Node pred = skipCancelledPredecessors(node);
 
         // predNext is the apparent node to unsplice. CASes below will
         // fail if not, in which case, we lost race vs another cancel
@@ -539,8 +1332,10 @@ public abstract class AbstractQueuedLongSynchronizer
         // Before, we are free of interference from other threads.
         node.waitStatus = Node.CANCELLED;
 
-        // If we are the tail, remove ourselves.
+        // If we are the tail, remove ourselves, along with the
+        // cancelled nodes skipped between pred and us.
         if (node == tail && compareAndSetTail(node, pred)) {
+            addCancelledNodes(-(int)(node.seq - pred.seq));
             compareAndSetNext(pred, predNext, null);
         } else {
             // If successor needs signal, try to set pred's next-link
@@ -551,7 +1346,8 @@ public abstract class AbstractQueuedLongSynchronizer
                  (ws <= 0 && compareAndSetWaitStatus(pred, ws, Node.SIGNAL))) &&
                 pred.thread != null) {
                 Node next = node.next;
-                if (next != null && next.waitStatus <= 0)
+                if (next != null && next.waitStatus <= 0 &&
+                    (predNext != null || !recycleNodes))
                     compareAndSetNext(pred, predNext, next);
             } else {
                 unparkSuccessor(node);
@@ -561,6 +1357,31 @@ public abstract class AbstractQueuedLongSynchronizer
         }
     }
 
+    /**
+     * Sets node's prev link to, and returns, its nearest non-cancelled
+     * predecessor.  Along the way, each traversed cancelled node whose
+     * own predecessor is also cancelled is relinked past it (path
+     * halving), so that when many waiters time out or are interrupted
+     * together, the runs of cancelled nodes traversed by the other
+     * cancelling and waiting threads shrink with each traversal,
+     * rather than being walked in full by each of them.  Racing
+     * relinks are harmless: cancellation is permanent, so a prev link
+     * may always be moved back past cancelled nodes.
+     *
+     * @param node a queued node
+     * @return node's nearest non-cancelled predecessor
+     */
+    private static Node skipCancelledPredecessors(Node node) {
+        Node pred = node.prev;
+        while (pred.waitStatus > 0) {
+            Node pp = pred.prev;
+            if (pp.waitStatus > 0)
+                pred.prev = pp = pp.prev;
+            node.prev = pred = pp;
+        }
+        return pred;
+    }
+
     /**
      * Checks and updates status for a node that failed to acquire.
      * Returns true if thread should block. This is the main signal
@@ -583,9 +1404,7 @@ public abstract class AbstractQueuedLongSynchronizer
              * Predecessor was cancelled. Skip over predecessors and
              * indicate retry.
              */
-            do {
-                node.prev = pred = pred.prev;
-            } while (pred.waitStatus > 0);
+            pred = skipCancelledPredecessors(node);
             pred.next = node;
         } else {
             /*
@@ -606,12 +1425,36 @@ public abstract class AbstractQueuedLongSynchronizer
     }
 
     /**
-     * Convenience method to park and then check if interrupted
+     * Returns true if a thread whose node has the given predecessor
+     * should retry acquire rather than block, as determined by the
+     * wait strategy. Only the first queued thread is allowed to spin.
      *
+     * @param pred node's predecessor
+     * @param spins number of previous spins during this acquire
+     * @return {@code true} if thread should retry without blocking
+     */
+    private final boolean shouldSpin(Node pred, int spins) {
+        WaitStrategy s;
+        return pred == head && (s = waitStrategy) != null &&
+            s.spin(this, spins);
+    }
+
+    /**
+     * Convenience method to park, unless the wait strategy asks to
+     * spin instead, and then check if interrupted
+     *
+     * @param pred node's predecessor
+     * @param spins number of previous spins during this acquire
+     * @param stats contention statistics, or null if not monitored
      * @return {@code true} if interrupted
      */
-    private final boolean parkAndCheckInterrupt() {
-        LockSupport.park(this);
+    private final boolean parkAndCheckInterrupt(Node pred, int spins,
+                                                ContentionStatistics stats) {
+        if (!shouldSpin(pred, spins)) {
+            if (stats != null)
+                stats.parked();
+            LockSupport.park(this);
+        }
         return Thread.interrupted();
     }
 
@@ -633,24 +1476,42 @@ public abstract class AbstractQueuedLongSynchronizer
      * @return {@code true} if interrupted while waiting
      */
     final boolean acquireQueued(final Node node, long arg) {
+        final ContentionStatistics stats = contentionStatistics;
+        final long startTime = (stats == null) ? 0L : stats.enqueued();
         boolean failed = true;
+        int spins = 0;
         try {
             boolean interrupted = false;
             for (;;) {
                 final Node p = node.predecessor();
-                if (p == head && tryAcquire(arg)) {
-                    setHead(node);
-                    p.next = null; // help GC
+                final Node sel = selected;
+                if ((sel == null ? p == head : sel == node) &&
+                    tryAcquire(arg)) {
+                    if (p != head)
+                        acquiredOutOfTurn(node);
+                    else {
+                        if (sel != null)
+                            selected = null;
+                        setHead(node);
+                        p.next = null; // help GC
+                        if (recycleNodes)
+                            p.retired = true;
+                    }
                     failed = false;
+                    if (stats != null)
+                        stats.acquired(startTime);
                     return interrupted;
                 }
                 if (shouldParkAfterFailedAcquire(p, node) &&
-                    parkAndCheckInterrupt())
+                    parkAndCheckInterrupt(p, spins++, stats))
                     interrupted = true;
             }
         } finally {
-            if (failed)
+            if (failed) {
                 cancelAcquire(node);
+                if (stats != null)
+                    stats.cancelled();
+            }
         }
     }
 
@@ -661,23 +1522,41 @@ public abstract class AbstractQueuedLongSynchronizer
     private void doAcquireInterruptibly(long arg)
         throws InterruptedException {
         final Node node = addWaiter(Node.EXCLUSIVE);
+        final ContentionStatistics stats = contentionStatistics;
+        final long startTime = (stats == null) ? 0L : stats.enqueued();
         boolean failed = true;
+        int spins = 0;
         try {
             for (;;) {
                 final Node p = node.predecessor();
-                if (p == head && tryAcquire(arg)) {
-                    setHead(node);
-                    p.next = null; // help GC
+                final Node sel = selected;
+                if ((sel == null ? p == head : sel == node) &&
+                    tryAcquire(arg)) {
+                    if (p != head)
+                        acquiredOutOfTurn(node);
+                    else {
+                        if (sel != null)
+                            selected = null;
+                        setHead(node);
+                        p.next = null; // help GC
+                        if (recycleNodes)
+                            p.retired = true;
+                    }
                     failed = false;
+                    if (stats != null)
+                        stats.acquired(startTime);
                     return;
                 }
                 if (shouldParkAfterFailedAcquire(p, node) &&
-                    parkAndCheckInterrupt())
+                    parkAndCheckInterrupt(p, spins++, stats))
                     throw new InterruptedException();
             }
         } finally {
-            if (failed)
+            if (failed) {
                 cancelAcquire(node);
+                if (stats != null)
+                    stats.cancelled();
+            }
         }
     }
 
@@ -691,22 +1570,46 @@ public abstract class AbstractQueuedLongSynchronizer
     private boolean doAcquireNanos(long arg, long nanosTimeout)
         throws InterruptedException {
         long lastTime = System.nanoTime();
-        final Node node = addWaiter(Node.EXCLUSIVE);
+        long deadline = lastTime + Math.min(nanosTimeout, maxDeadlineNanos);
+        final Node node = addWaiter(Node.EXCLUSIVE, NO_PRIORITY,
+                                    (deadline == 0L) ? 1L : deadline);
+        final ContentionStatistics stats = contentionStatistics;
+        final long startTime = (stats == null) ? 0L : stats.enqueued();
         boolean failed = true;
+        int spins = 0;
         try {
             for (;;) {
                 final Node p = node.predecessor();
-                if (p == head && tryAcquire(arg)) {
-                    setHead(node);
-                    p.next = null; // help GC
+                final Node sel = selected;
+                if ((sel == null ? p == head : sel == node) &&
+                    tryAcquire(arg)) {
+                    if (p != head)
+                        acquiredOutOfTurn(node);
+                    else {
+                        if (sel != null)
+                            selected = null;
+                        setHead(node);
+                        p.next = null; // help GC
+                        if (recycleNodes)
+                            p.retired = true;
+                    }
                     failed = false;
+                    if (stats != null)
+                        stats.acquired(startTime);
                     return true;
                 }
-                if (nanosTimeout <= 0)
+                if (nanosTimeout <= 0) {
+                    if (stats != null)
+                        stats.timedOut();
                     return false;
+                }
                 if (shouldParkAfterFailedAcquire(p, node) &&
-                    nanosTimeout > spinForTimeoutThreshold)
+                    nanosTimeout > spinForTimeoutThreshold &&
+                    !shouldSpin(p, spins++)) {
+                    if (stats != null)
+                        stats.parked();
                     LockSupport.parkNanos(this, nanosTimeout);
+                }
                 long now = System.nanoTime();
                 nanosTimeout -= now - lastTime;
                 lastTime = now;
@@ -714,8 +1617,11 @@ public abstract class AbstractQueuedLongSynchronizer
                     throw new InterruptedException();
             }
         } finally {
-            if (failed)
+            if (failed) {
                 cancelAcquire(node);
+                if (stats != null)
+                    stats.cancelled();
+            }
         }
     }
 
@@ -725,29 +1631,51 @@ public abstract class AbstractQueuedLongSynchronizer
      */
     private void doAcquireShared(long arg) {
         final Node node = addWaiter(Node.SHARED);
+        node.arg = arg;
+        final ContentionStatistics stats = contentionStatistics;
+        final long startTime = (stats == null) ? 0L : stats.enqueued();
         boolean failed = true;
+        int spins = 0;
         try {
             boolean interrupted = false;
             for (;;) {
+                if (node.grant == Node.GRANTED) { // see grantShared
+                    if (recycleNodes)
+                        skipCancelledPredecessors(node).retired = true;
+                    node.prev = null;
+                    if (stats != null)
+                        stats.acquired(startTime);
+                    if (interrupted)
+                        selfInterrupt();
+                    failed = false;
+                    return;
+                }
                 final Node p = node.predecessor();
                 if (p == head) {
                     long r = tryAcquireShared(arg);
                     if (r >= 0) {
+                        failed = false; // even if propagation throws
                         setHeadAndPropagate(node, r);
                         p.next = null; // help GC
+                        if (recycleNodes)
+                            p.retired = true;
+                        if (stats != null)
+                            stats.acquired(startTime);
                         if (interrupted)
                             selfInterrupt();
-                        failed = false;
                         return;
                     }
                 }
                 if (shouldParkAfterFailedAcquire(p, node) &&
-                    parkAndCheckInterrupt())
+                    parkAndCheckInterrupt(p, spins++, stats))
                     interrupted = true;
             }
         } finally {
-            if (failed)
+            if (failed) {
                 cancelAcquire(node);
+                if (stats != null)
+                    stats.cancelled();
+            }
         }
     }
 
@@ -758,26 +1686,49 @@ public abstract class AbstractQueuedLongSynchronizer
     private void doAcquireSharedInterruptibly(long arg)
         throws InterruptedException {
         final Node node = addWaiter(Node.SHARED);
+        node.arg = arg;
+        final ContentionStatistics stats = contentionStatistics;
+        final long startTime = (stats == null) ? 0L : stats.enqueued();
         boolean failed = true;
+        int spins = 0;
         try {
             for (;;) {
+                if (node.grant == Node.GRANTED) { // see grantShared
+                    if (recycleNodes)
+                        skipCancelledPredecessors(node).retired = true;
+                    node.prev = null;
+                    if (stats != null)
+                        stats.acquired(startTime);
+                    failed = false;
+                    return;
+                }
                 final Node p = node.predecessor();
                 if (p == head) {
                     long r = tryAcquireShared(arg);
                     if (r >= 0) {
+                        failed = false; // even if propagation throws
                         setHeadAndPropagate(node, r);
                         p.next = null; // help GC
-                        failed = false;
+                        if (recycleNodes)
+                            p.retired = true;
+                        if (stats != null)
+                            stats.acquired(startTime);
                         return;
                     }
                 }
                 if (shouldParkAfterFailedAcquire(p, node) &&
-                    parkAndCheckInterrupt())
-                    throw new InterruptedException();
+                    parkAndCheckInterrupt(p, spins++, stats)) {
+                    if (abandonShared(node))
+                        throw new InterruptedException();
+                    selfInterrupt(); // granted; report interrupt later
+                }
             }
         } finally {
-            if (failed)
+            if (failed) {
                 cancelAcquire(node);
+                if (stats != null)
+                    stats.cancelled();
+            }
         }
     }
 
@@ -793,33 +1744,63 @@ public abstract class AbstractQueuedLongSynchronizer
 
         long lastTime = System.nanoTime();
         final Node node = addWaiter(Node.SHARED);
+        node.arg = arg;
+        final ContentionStatistics stats = contentionStatistics;
+        final long startTime = (stats == null) ? 0L : stats.enqueued();
         boolean failed = true;
+        int spins = 0;
         try {
             for (;;) {
+                if (node.grant == Node.GRANTED) { // see grantShared
+                    if (recycleNodes)
+                        skipCancelledPredecessors(node).retired = true;
+                    node.prev = null;
+                    if (stats != null)
+                        stats.acquired(startTime);
+                    failed = false;
+                    return true;
+                }
                 final Node p = node.predecessor();
                 if (p == head) {
                     long r = tryAcquireShared(arg);
                     if (r >= 0) {
+                        failed = false; // even if propagation throws
                         setHeadAndPropagate(node, r);
                         p.next = null; // help GC
-                        failed = false;
+                        if (recycleNodes)
+                            p.retired = true;
+                        if (stats != null)
+                            stats.acquired(startTime);
                         return true;
                     }
                 }
-                if (nanosTimeout <= 0)
+                if (nanosTimeout <= 0 && abandonShared(node)) {
+                    if (stats != null)
+                        stats.timedOut();
                     return false;
+                }
                 if (shouldParkAfterFailedAcquire(p, node) &&
-                    nanosTimeout > spinForTimeoutThreshold)
+                    nanosTimeout > spinForTimeoutThreshold &&
+                    !shouldSpin(p, spins++)) {
+                    if (stats != null)
+                        stats.parked();
                     LockSupport.parkNanos(this, nanosTimeout);
+                }
                 long now = System.nanoTime();
                 nanosTimeout -= now - lastTime;
                 lastTime = now;
-                if (Thread.interrupted())
-                    throw new InterruptedException();
+                if (Thread.interrupted()) {
+                    if (abandonShared(node))
+                        throw new InterruptedException();
+                    selfInterrupt(); // granted; report interrupt later
+                }
             }
         } finally {
-            if (failed)
+            if (failed) {
                 cancelAcquire(node);
+                if (stats != null)
+                    stats.cancelled();
+            }
         }
     }
 
@@ -979,6 +1960,79 @@ public abstract class AbstractQueuedLongSynchronizer
             selfInterrupt();
     }
 
+    /**
+     * Acquires in exclusive mode without blocking, running the given
+     * callback once acquired.  If {@link #tryAcquire} succeeds, the
+     * callback is run immediately by the current thread.  Otherwise a
+     * wait node without a thread is queued in the usual order, and
+     * whenever the thread of such a node would be woken, in
+     * particular upon each {@link #release}, the waking thread
+     * instead invokes {@code tryAcquire} on its behalf, and on
+     * success runs the callback.  So no thread ever blocks waiting
+     * for the acquire, and asynchronous and blocking acquires are
+     * granted in the same order.  Under a {@link QueueOrdering}
+     * other than FIFO, asynchronous acquires are granted only when no
+     * blocking acquire is waiting.
+     *
+     * <p>The callback is run while this synchronizer is held on its
+     * behalf by the thread running it, and is responsible for
+     * releasing it, typically by invoking {@link #release} before
+     * returning.  A callback may be run by any thread, including one
+     * that is releasing while running another callback, in which case
+     * it is run after that callback returns.  Callbacks should
+     * therefore be short, and must not block.  An exception thrown by
+     * a callback is passed to the {@linkplain
+     * Thread#getUncaughtExceptionHandler uncaught exception handler}
+     * of the thread running it.
+     *
+     * <p>This method may be used only by synchronizers whose {@code
+     * tryAcquire} and {@code tryRelease} do not require that they be
+     * invoked by the same thread, or that record the current thread
+     * as owner in {@code tryAcquire}, as the thread running the
+     * callback is the one that acquired.
+     *
+     * @param arg the acquire argument.  This value is conveyed to
+     *        {@link #tryAcquire} but is otherwise uninterpreted and
+     *        can represent anything you like.
+     * @param callback the action to run once acquired
+     * @throws NullPointerException if callback is null
+     */
+    public final void acquireAsync(long arg, Runnable callback) {
+        if (callback == null)
+            throw new NullPointerException();
+        if (tryAcquire(arg))
+            runAsyncCallback(callback);
+        else {
+            Node node = new Node(null, Node.EXCLUSIVE);
+            node.arg = arg;
+            node.callback = callback;
+            enq(node);
+            tryAcquireAsync(node);
+        }
+    }
+
+    /**
+     * Acquires in exclusive mode, ignoring interrupts, as does {@link
+     * #acquire}, except that if the thread is queued, the given
+     * priority rather than the priority of the thread is used by a
+     * {@link QueueOrdering#PRIORITY} ordering.
+     *
+     * @param arg the acquire argument.  This value is conveyed to
+     *        {@link #tryAcquire} but is otherwise uninterpreted and
+     *        can represent anything you like.
+     * @param priority the acquire priority; higher values are
+     *        chosen first
+     * @throws IllegalArgumentException if priority is
+     *         {@code Integer.MIN_VALUE}
+     */
+    public final void acquireWithPriority(long arg, int priority) {
+        if (priority == NO_PRIORITY)
+            throw new IllegalArgumentException();
+        if (!tryAcquire(arg) &&
+            acquireQueued(addWaiter(Node.EXCLUSIVE, priority, 0L), arg))
+            selfInterrupt();
+    }
+
     /**
      * Acquires in exclusive mode, aborting if interrupted.
      * Implemented by first checking interrupt status, then invoking
@@ -1038,8 +2092,11 @@ public abstract class AbstractQueuedLongSynchronizer
      */
     public final boolean release(long arg) {
         if (tryRelease(arg)) {
-            Node h = head;
-            if (h != null && h.waitStatus != 0)
+            QueueOrdering o = queueOrdering;
+            Node h;
+            if (o != null)
+                selectSuccessor(o);
+            else if ((h = head) != null && h.waitStatus != 0)
                 unparkSuccessor(h);
             return true;
         }
@@ -1209,6 +2266,46 @@ public abstract class AbstractQueuedLongSynchronizer
         return firstThread;
     }
 
+    /**
+     * Returns the time that the first (longest-waiting) node in the
+     * queue has waited since it was enqueued, or {@code -1} if the
+     * queue is empty or enqueue times are not recorded (see {@link
+     * #enableEnqueueTimes}).  A thread waiting in a condition queue
+     * counts as enqueued only once signalled.  As with {@link
+     * #getFirstQueuedThread}, the result is only an estimate when
+     * nodes are concurrently enqueued or dequeued.
+     *
+     * <p>This method is designed for use in building synchronizers
+     * that vary their policies, for example allowing barging only
+     * while no thread has waited too long.  If the queue is empty,
+     * this method returns without reading the clock.
+     *
+     * @return the time in nanoseconds that the first queued node has
+     *         waited, or {@code -1} if none
+     */
+    public final long getFirstQueuedWaitNanos() {
+        Node h, s, t;
+        if (!enqueueTimes || (h = head) == (t = tail))
+            return -1L;
+        long start;
+        if ((s = h.next) != null && s.prev == h)
+            start = s.enqueueTime;
+        else {
+            // As in fullGetFirstQueuedThread, traverse back from tail
+            Node first = null;
+            while (t != null && t != h) {
+                if (t.waitStatus <= 0)
+                    first = t;
+                t = t.prev;
+            }
+            if (first == null)
+                return -1L;
+            start = first.enqueueTime;
+        }
+        long waited = System.nanoTime() - start;
+        return (waited < 0L) ? 0L : waited;
+    }
+
     /**
      * Returns true if the given thread is currently queued.
      *
@@ -1292,6 +2389,9 @@ public abstract class AbstractQueuedLongSynchronizer
         // The correctness of this depends on head being initialized
         // before tail and on head.next being accurate if the current
         // thread is first in queue.
+        Node sel = selected; // Only a chosen node may acquire next
+        if (sel != null)
+            return sel.thread != Thread.currentThread();
         Node t = tail; // Read fields in reverse initialization order
         Node h = head;
         Node s;
@@ -1305,18 +2405,50 @@ public abstract class AbstractQueuedLongSynchronizer
     /**
      * Returns an estimate of the number of threads waiting to
      * acquire.  The value is only an estimate because the number of
-     * threads may change dynamically while this method traverses
-     * internal data structures.  This method is designed for use in
-     * monitoring system state, not for synchronization
+     * threads may change dynamically while this method reads
+     * internal data structures.  The count is maintained as threads
+     * enqueue, acquire and cancel, so this method takes constant time
+     * and does not traverse the queue.  This method is designed for
+     * use in monitoring system state, not for synchronization
      * control.
      *
      * @return the estimated number of threads waiting to acquire
      */
     public final int getQueueLength() {
+        Node h = head; // Read head before tail, so h cannot be after t
+        Node t = tail;
+        if (h == null || t == null)
+            return 0;
+        long n = t.seq - h.seq - cancelledNodes;
+        return (n <= 0L) ? 0 : (n >= Integer.MAX_VALUE) ?
+            Integer.MAX_VALUE : (int)n;
+    }
+
+    /**
+     * Invokes the given visitor for each thread that may be waiting
+     * to acquire, until the visitor returns {@code false}.  Unlike
+     * {@link #getQueuedThreads}, this method allocates nothing, so is
+     * suitable for frequent polling.  As with that method, the
+     * threads visited are only a best-effort estimate of those
+     * actually waiting, and are visited in no particular order.  This
+     * method is designed for use in monitoring system state, not for
+     * synchronization control.
+     *
+     * @param visitor the visitor
+     * @return the number of threads visited
+     * @throws NullPointerException if visitor is null
+     */
+    public final int visitQueuedThreads(QueuedThreadVisitor visitor) {
+        if (visitor == null)
+            throw new NullPointerException();
         int n = 0;
         for (Node p = tail; p != null; p = p.prev) {
-            if (p.thread != null)
+            Thread t = p.thread;
+            if (t != null) {
                 ++n;
+                if (!visitor.visit(t, p.isShared()))
+                    break;
+            }
         }
         return n;
     }
@@ -1382,6 +2514,56 @@ public abstract class AbstractQueuedLongSynchronizer
         return list;
     }
 
+    /**
+     * Enables collection of contention statistics for this
+     * synchronizer, and registers them with the platform {@link
+     * javax.management.MBeanServer MBeanServer} as a {@link
+     * SynchronizerContentionMXBean} with the given name.  Only
+     * acquires that enter the wait queue are recorded, so enabling
+     * statistics has no effect on the cost of uncontended acquires
+     * and releases.  If statistics are already enabled, they are
+     * first disabled.  Concurrent invocations of this method and
+     * {@link #disableContentionMonitoring} take effect one at a time.
+     *
+     * @param name the name under which to register the statistics
+     * @return the statistics
+     * @throws NullPointerException if the name is null
+     * @throws IllegalArgumentException if the name is already in use
+     *         by another registered synchronizer
+     */
+    public final synchronized SynchronizerContentionMXBean
+        enableContentionMonitoring(String name) {
+        if (name == null)
+            throw new NullPointerException();
+        ContentionStatistics stats = new ContentionStatistics(name);
+        disableContentionMonitoring();
+        stats.register();
+        contentionStatistics = stats;
+        return stats;
+    }
+
+    /**
+     * Disables collection of contention statistics for this
+     * synchronizer, unregistering them if they were enabled.
+     */
+    public final synchronized void disableContentionMonitoring() {
+        ContentionStatistics stats = contentionStatistics;
+        if (stats != null) {
+            contentionStatistics = null;
+            stats.unregister();
+        }
+    }
+
+    /**
+     * Returns the contention statistics for this synchronizer, or
+     * {@code null} if they are not enabled.
+     *
+     * @return the statistics, or {@code null} if not enabled
+     */
+    public final SynchronizerContentionMXBean getContentionStatistics() {
+        return contentionStatistics;
+    }
+
     /**
      * Returns a string identifying this synchronizer, as well as its state.
      * The state, in brackets, includes the String {@code "State ="}
@@ -1447,6 +2629,10 @@ public abstract class AbstractQueuedLongSynchronizer
      * cancelled before signal).
      */
     final boolean transferForSignal(Node node) {
+        Node principal = node.principal;
+        if (principal != null)
+            return transferProxyForSignal(node, principal);
+
         /*
          * If cannot change waitStatus, the node has been cancelled.
          */
@@ -1454,16 +2640,52 @@ public abstract class AbstractQueuedLongSynchronizer
             return false;
 
         /*
-         * Splice onto queue and try to set waitStatus of predecessor to
-         * indicate that thread is (probably) waiting. If cancelled or
-         * attempt to set waitStatus fails, wake up to resync (in which
-         * case the waitStatus can be transiently and harmlessly wrong).
+         * Splice onto queue and set waitStatus of predecessor to
+         * indicate that thread is waiting, without waking it.  The
+         * signaller normally holds the lock, so a thread woken now
+         * would only block again in acquireQueued; instead it is
+         * woken by the release that makes the lock available, like
+         * any other queued thread (wait morphing).  So rather than
+         * waking the thread to resync if the predecessor is
+         * cancelled or its waitStatus changes, skip past cancelled
+         * predecessors as the thread itself would, and retry.  This
+         * may race with the thread skipping them itself, if it wakes
+         * spuriously, which is harmless.  Nodes ahead of this one
+         * cannot be dequeued, or so recycled, while the lock is held.
          */
         Node p = enq(node);
-        int ws = p.waitStatus;
-        if (ws > 0 || !compareAndSetWaitStatus(p, ws, Node.SIGNAL))
-            LockSupport.unpark(node.thread);
-        return true;
+        for (;;) {
+            int ws = p.waitStatus;
+            if (ws > 0)
+                p = skipCancelledPredecessors(node);
+            else if (ws == Node.SIGNAL ||
+                     compareAndSetWaitStatus(p, ws, Node.SIGNAL))
+                return true;
+        }
+    }
+
+    /**
+     * Transfers the principal node of a proxy from a condition queue
+     * onto sync queue, unless the principal has already been
+     * transferred, upon signal of another of its proxies or
+     * cancellation.  On return, the proxy's waitStatus is 0 if it
+     * caused the transfer, else CANCELLED, so that it is unlinked
+     * like any cancelled node.  As all proxy status updates are
+     * performed while holding lock, plain writes suffice; only the
+     * principal's waitStatus is raced for.
+     * @param proxy the proxy node
+     * @param principal its principal node
+     * @return true if the proxy caused the transfer
+     */
+    private boolean transferProxyForSignal(Node proxy, Node principal) {
+        if (proxy.waitStatus != Node.CONDITION)
+            return false;
+        if (transferForSignal(principal)) {
+            proxy.waitStatus = 0;
+            return true;
+        }
+        proxy.waitStatus = Node.CANCELLED;
+        return false;
     }
 
     /**
@@ -1476,6 +2698,7 @@ public abstract class AbstractQueuedLongSynchronizer
      */
     final boolean transferAfterCancelledWait(Node node) {
         if (compareAndSetWaitStatus(node, Node.CONDITION, 0)) {
+            evictNode(node); // may remain on condition queue
             enq(node);
             return true;
         }
@@ -1507,9 +2730,169 @@ public abstract class AbstractQueuedLongSynchronizer
                 throw new IllegalMonitorStateException();
             }
         } finally {
-            if (failed)
+            if (failed) {
                 node.waitStatus = Node.CANCELLED;
+                evictNode(node);
+            }
+        }
+    }
+
+    // Waiting on several conditions
+
+    /**
+     * Causes the current thread to wait until any of the given
+     * conditions associated with this synchronizer is signalled or
+     * the thread is {@linkplain Thread#interrupt interrupted}.  The
+     * thread is enqueued on the wait queue of each condition, and
+     * upon the first signal of any of them, is removed from the
+     * others, so that their later signals pass over it as they do
+     * over threads whose waits were cancelled, rather than being
+     * lost.  Otherwise this behaves as does {@link
+     * ConditionObject#await()}; in particular, the synchronizer is
+     * fully released while waiting, and reacquired before returning.
+     *
+     * @param conditions the conditions
+     * @return the index in {@code conditions} of the condition that
+     *         was signalled
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws IllegalMonitorStateException if {@link #isHeldExclusively}
+     *         returns {@code false}
+     * @throws IllegalArgumentException if no conditions are given, or
+     *         any is not owned by this synchronizer
+     * @throws NullPointerException if the array or any condition is null
+     */
+    public final int awaitAny(ConditionObject... conditions)
+        throws InterruptedException {
+        return doAwaitAny(conditions, true, false, 0L);
+    }
+
+    /**
+     * Causes the current thread to wait until any of the given
+     * conditions associated with this synchronizer is signalled, as
+     * does {@link #awaitAny(ConditionObject[])}, except that it is
+     * not responsive to interrupts, as for {@link
+     * ConditionObject#awaitUninterruptibly}.
+     *
+     * @param conditions the conditions
+     * @return the index in {@code conditions} of the condition that
+     *         was signalled
+     * @throws IllegalMonitorStateException if {@link #isHeldExclusively}
+     *         returns {@code false}
+     * @throws IllegalArgumentException if no conditions are given, or
+     *         any is not owned by this synchronizer
+     * @throws NullPointerException if the array or any condition is null
+     */
+    public final int awaitAnyUninterruptibly(ConditionObject... conditions) {
+        try {
+            return doAwaitAny(conditions, false, false, 0L);
+        } catch (InterruptedException cannotHappen) {
+            throw new Error(cannotHappen);
+        }
+    }
+
+    /**
+     * Causes the current thread to wait until any of the given
+     * conditions associated with this synchronizer is signalled, the
+     * thread is {@linkplain Thread#interrupt interrupted}, or the
+     * given waiting time elapses, as does {@link
+     * #awaitAny(ConditionObject[])} and otherwise as for {@link
+     * ConditionObject#await(long, TimeUnit)}.
+     *
+     * @param time the maximum time to wait
+     * @param unit the time unit of the {@code time} argument
+     * @param conditions the conditions
+     * @return the index in {@code conditions} of the condition that
+     *         was signalled, or {@code -1} if the waiting time elapsed
+     *         before any was signalled
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws IllegalMonitorStateException if {@link #isHeldExclusively}
+     *         returns {@code false}
+     * @throws IllegalArgumentException if no conditions are given, or
+     *         any is not owned by this synchronizer
+     * @throws NullPointerException if the array, the time unit or
+     *         any condition is null
+     */
+    public final int awaitAny(long time, TimeUnit unit,
+                              ConditionObject... conditions)
+        throws InterruptedException {
+        return doAwaitAny(conditions, true, true, unit.toNanos(time));
+    }
+
+    /**
+     * Implements awaitAny.  A principal node, on no condition queue,
+     * is created for the wait, along with a proxy on the queue of
+     * each condition.  Signalling a proxy transfers the principal,
+     * exactly once, however many proxies are signalled, and a
+     * cancelled wait transfers it as usual.  Upon reacquiring, the
+     * thread marks its remaining proxies as cancelled, accounting for
+     * them in their conditions, which unlink them in the usual
+     * amortized way.
+     */
+    private int doAwaitAny(ConditionObject[] conditions,
+                           boolean interruptible, boolean timed, long nanos)
+        throws InterruptedException {
+        if (interruptible && Thread.interrupted())
+            throw new InterruptedException();
+        int n = conditions.length;
+        if (n == 0)
+            throw new IllegalArgumentException();
+        for (int i = 0; i < n; ++i)
+            if (!owns(conditions[i]))
+                throw new IllegalArgumentException("Not owner");
+        if (!isHeldExclusively())
+            throw new IllegalMonitorStateException();
+        Node node = newNode(Node.EXCLUSIVE, Node.CONDITION);
+        if (queueOrdering != null) {
+            node.priority = Thread.currentThread().getPriority();
+            node.deadline = 0L;
+        }
+        Node[] proxies = new Node[n];
+        for (int i = 0; i < n; ++i)
+            proxies[i] = conditions[i].addProxyWaiter(node);
+        long savedState = fullyRelease(node);
+        final long deadline = timed ? System.nanoTime() + nanos : 0L;
+        boolean interrupted = false;
+        int interruptMode = 0;
+        while (!isOnSyncQueue(node)) {
+            if (timed) {
+                if (nanos <= 0L) {
+                    transferAfterCancelledWait(node);
+                    break;
+                }
+                LockSupport.parkNanos(this, nanos);
+                nanos = deadline - System.nanoTime();
+            }
+            else
+                LockSupport.park(this);
+            if (Thread.interrupted()) {
+                if (!interruptible)
+                    interrupted = true;
+                else {
+                    interruptMode = transferAfterCancelledWait(node) ?
+                        ConditionObject.THROW_IE : ConditionObject.REINTERRUPT;
+                    break;
+                }
+            }
+        }
+        if ((acquireQueued(node, savedState) || interrupted) &&
+            interruptMode != ConditionObject.THROW_IE)
+            interruptMode = ConditionObject.REINTERRUPT;
+        int signalled = -1;
+        for (int i = 0; i < n; ++i) {
+            Node p = proxies[i];
+            int ws = p.waitStatus;
+            if (ws == 0)
+                signalled = i;
+            else if (ws == Node.CONDITION) {
+                p.waitStatus = Node.CANCELLED;
+                conditions[i].cancelledWaiter(p);
+            }
         }
+        if (interruptMode == ConditionObject.THROW_IE)
+            throw new InterruptedException();
+        if (interruptMode == ConditionObject.REINTERRUPT)
+            selfInterrupt();
+        return signalled;
     }
 
     // Instrumentation methods for conditions
@@ -1617,6 +3000,17 @@ public abstract class AbstractQueuedLongSynchronizer
         private transient Node firstWaiter;
         /** Last node of condition queue. */
         private transient Node lastWaiter;
+        /**
+         * Number of nodes in condition queue, including cancelled
+         * ones. Accessed only while holding lock.
+         */
+        private transient int waiters;
+        /**
+         * Number of nodes in condition queue whose waits are known
+         * to have been cancelled, counted once their threads
+         * reacquire. Accessed only while holding lock.
+         */
+        private transient int cancelledWaiters;
 
         /**
          * Creates a new <tt>ConditionObject</tt> instance.
@@ -1631,33 +3025,89 @@ public abstract class AbstractQueuedLongSynchronizer
          */
         private Node addConditionWaiter() {
             Node t = lastWaiter;
-            // If lastWaiter is cancelled, clean out.
-            if (t != null && t.waitStatus != Node.CONDITION) {
-                unlinkCancelledWaiters();
-                t = lastWaiter;
+            Node node = newNode(Node.EXCLUSIVE, Node.CONDITION);
+            if (queueOrdering != null) {
+                node.priority = Thread.currentThread().getPriority();
+                node.deadline = 0L;
             }
+            if (t == null)
+                firstWaiter = node;
+            else
+                t.nextWaiter = node;
+            lastWaiter = node;
+            ++waiters;
+            return node;
+        }
+
+        /**
+         * Adds a new proxy waiter to wait queue, for the current
+         * thread waiting on several conditions.
+         * @param principal the node of the wait
+         * @return its new proxy node
+         */
+        final Node addProxyWaiter(Node principal) {
+            Node t = lastWaiter;
             Node node = new Node(Thread.currentThread(), Node.CONDITION);
+            node.principal = principal;
             if (t == null)
                 firstWaiter = node;
             else
                 t.nextWaiter = node;
             lastWaiter = node;
+            ++waiters;
             return node;
         }
 
         /**
-         * Removes and transfers nodes until hit non-cancelled one or
-         * null. Split out from signal in part to encourage compilers
-         * to inline the case of no waiters.
+         * Removes and transfers nodes until n non-cancelled ones have
+         * been transferred or hit null. Split out from signal in part
+         * to encourage compilers to inline the case of no waiters.
          * @param first (non-null) the first node on condition queue
+         * @param n (positive) the number of nodes to transfer
+         * @return the number of nodes transferred
          */
-        private void doSignal(Node first) {
+        private int doSignal(Node first, int n) {
+            int transferred = 0;
             do {
                 if ( (firstWaiter = first.nextWaiter) == null)
                     lastWaiter = null;
                 first.nextWaiter = null;
-            } while (!transferForSignal(first) &&
-                     (first = firstWaiter) != null);
+                --waiters;
+                if (transferForSignal(first))
+                    ++transferred;
+                // Cancelled, or a proxy dropped as such
+                else if (first.cancelCounted)
+                    --cancelledWaiters;
+            } while (transferred < n && (first = firstWaiter) != null);
+            return transferred;
+        }
+
+        /**
+         * Unlinks and transfers the first node of the given thread
+         * whose wait has not been cancelled, if one exists.
+         * @param thread the thread
+         * @return true if a node was transferred
+         */
+        private boolean doSignal(Thread thread) {
+            Node trail = null;
+            for (Node t = firstWaiter; t != null; t = t.nextWaiter) {
+                if (t.thread == thread && t.waitStatus == Node.CONDITION) {
+                    Node next = t.nextWaiter;
+                    if (trail == null)
+                        firstWaiter = next;
+                    else
+                        trail.nextWaiter = next;
+                    if (next == null)
+                        lastWaiter = trail;
+                    t.nextWaiter = null;
+                    --waiters;
+                    // Fails if cancelled since checked, in which case
+                    // it cannot yet have been counted
+                    return transferForSignal(t);
+                }
+                trail = t;
+            }
+            return false;
         }
 
         /**
@@ -1666,6 +3116,7 @@ public abstract class AbstractQueuedLongSynchronizer
          */
         private void doSignalAll(Node first) {
             lastWaiter = firstWaiter = null;
+            waiters = cancelledWaiters = 0;
             do {
                 Node next = first.nextWaiter;
                 first.nextWaiter = null;
@@ -1675,22 +3126,44 @@ public abstract class AbstractQueuedLongSynchronizer
         }
 
         /**
-         * Unlinks cancelled waiter nodes from condition queue.
-         * Called only while holding lock. This is called when
-         * cancellation occurred during condition wait, and upon
-         * insertion of a new waiter when lastWaiter is seen to have
-         * been cancelled. This method is needed to avoid garbage
-         * retention in the absence of signals. So even though it may
-         * require a full traversal, it comes into play only when
-         * timeouts or cancellations occur in the absence of
-         * signals. It traverses all nodes rather than stopping at a
-         * particular target to unlink all pointers to garbage nodes
-         * without requiring many re-traversals during cancellation
-         * storms.
+         * Records a cancelled condition wait, unlinking cancelled
+         * waiters once they may make up more than half of the
+         * condition queue.  Called only while holding lock, after
+         * cancellation occurred during condition wait.  Deferring
+         * unlinking in this way bounds the garbage retained in the
+         * absence of signals to the number of live waiters, while
+         * each full traversal is paid for by as many cancellations
+         * as it removes nodes, so that during cancellation storms the
+         * cost per timeout or interrupt is constant when amortized.
+         * The node is counted only if it is still in the queue, that
+         * is, if it has a successor or is last, and is then marked as
+         * counted, so that a signal unlinking it discounts it, while
+         * a signal unlinking a cancelled node not yet counted does
+         * not.
+         *
+         * @param node the node of the cancelled wait
+         */
+        private void cancelledWaiter(Node node) {
+            if (node.nextWaiter != null || lastWaiter == node) {
+                node.cancelCounted = true;
+                if (++cancelledWaiters > (waiters >>> 1))
+                    unlinkCancelledWaiters();
+            }
+        }
+
+        /**
+         * Unlinks cancelled waiter nodes from condition queue, and
+         * resets the counts of waiters and cancellations.  Called
+         * only while holding lock. This method is needed to avoid
+         * garbage retention in the absence of signals. It traverses
+         * all nodes rather than stopping at a particular target to
+         * unlink all pointers to garbage nodes without requiring many
+         * re-traversals during cancellation storms.
          */
         private void unlinkCancelledWaiters() {
             Node t = firstWaiter;
             Node trail = null;
+            int n = 0;
             while (t != null) {
                 Node next = t.nextWaiter;
                 if (t.waitStatus != Node.CONDITION) {
@@ -1702,10 +3175,14 @@ public abstract class AbstractQueuedLongSynchronizer
                     if (next == null)
                         lastWaiter = trail;
                 }
-                else
+                else {
                     trail = t;
+                    ++n;
+                }
                 t = next;
             }
+            waiters = n;
+            cancelledWaiters = 0;
         }
 
         // public methods
@@ -1713,7 +3190,8 @@ public abstract class AbstractQueuedLongSynchronizer
         /**
          * Moves the longest-waiting thread, if one exists, from the
          * wait queue for this condition to the wait queue for the
-         * owning lock.
+         * owning lock.  The thread remains blocked until woken by a
+         * release of the lock, as are other threads in that queue.
          *
          * @throws IllegalMonitorStateException if {@link #isHeldExclusively}
          *         returns {@code false}
@@ -1723,12 +3201,62 @@ public abstract class AbstractQueuedLongSynchronizer
                 throw new IllegalMonitorStateException();
             Node first = firstWaiter;
             if (first != null)
-                doSignal(first);
+                doSignal(first, 1);
+        }
+
+        /**
+         * Moves the given number of longest-waiting threads, or all
+         * threads if fewer are waiting, from the wait queue for this
+         * condition to the wait queue for the owning lock, in a single
+         * traversal.  The threads remain blocked until woken by
+         * releases of the lock, as are other threads in that queue.
+         * This may be used to wake as many threads as there are, for
+         * example, newly available items, without waking the rest as
+         * {@link #signalAll} would.
+         *
+         * @param n the maximum number of threads to move
+         * @return the number of threads moved
+         * @throws IllegalArgumentException if {@code n} is negative
+         * @throws IllegalMonitorStateException if {@link #isHeldExclusively}
+         *         returns {@code false}
+         */
+        public final int signal(int n) {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            if (n < 0)
+                throw new IllegalArgumentException();
+            Node first = firstWaiter;
+            return (first != null && n > 0) ? doSignal(first, n) : 0;
+        }
+
+        /**
+         * Moves the given thread, if it is waiting on this condition,
+         * from the wait queue for this condition to the wait queue for
+         * the owning lock, regardless of how long other threads have
+         * waited on this condition.  The thread remains blocked until
+         * woken by a release of the lock, as are other threads in that
+         * queue.
+         *
+         * @param thread the thread
+         * @return {@code true} if the thread was waiting on this
+         *         condition and was moved
+         * @throws NullPointerException if the thread is null
+         * @throws IllegalMonitorStateException if {@link #isHeldExclusively}
+         *         returns {@code false}
+         */
+        public final boolean signal(Thread thread) {
+            if (thread == null)
+                throw new NullPointerException();
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            return doSignal(thread);
         }
 
         /**
          * Moves all threads from the wait queue for this condition to
-         * the wait queue for the owning lock.
+         * the wait queue for the owning lock.  The threads remain
+         * blocked until woken by releases of the lock, as are other
+         * threads in that queue.
          *
          * @throws IllegalMonitorStateException if {@link #isHeldExclusively}
          *         returns {@code false}
@@ -1828,8 +3356,8 @@ public abstract class AbstractQueuedLongSynchronizer
             }
             if (acquireQueued(node, savedState) && interruptMode != THROW_IE)
                 interruptMode = REINTERRUPT;
-            if (node.nextWaiter != null) // clean up if cancelled
-                unlinkCancelledWaiters();
+            if (interruptMode == THROW_IE) // account for cancellation
+                cancelledWaiter(node);
             if (interruptMode != 0)
                 reportInterruptAfterWait(interruptMode);
         }
@@ -1855,10 +3383,11 @@ public abstract class AbstractQueuedLongSynchronizer
             Node node = addConditionWaiter();
             long savedState = fullyRelease(node);
             long lastTime = System.nanoTime();
+            boolean timedout = false;
             int interruptMode = 0;
             while (!isOnSyncQueue(node)) {
                 if (nanosTimeout <= 0L) {
-                    transferAfterCancelledWait(node);
+                    timedout = transferAfterCancelledWait(node);
                     break;
                 }
                 LockSupport.parkNanos(this, nanosTimeout);
@@ -1871,8 +3400,8 @@ public abstract class AbstractQueuedLongSynchronizer
             }
             if (acquireQueued(node, savedState) && interruptMode != THROW_IE)
                 interruptMode = REINTERRUPT;
-            if (node.nextWaiter != null)
-                unlinkCancelledWaiters();
+            if (timedout || interruptMode == THROW_IE)
+                cancelledWaiter(node);
             if (interruptMode != 0)
                 reportInterruptAfterWait(interruptMode);
             return nanosTimeout - (System.nanoTime() - lastTime);
@@ -1915,8 +3444,8 @@ public abstract class AbstractQueuedLongSynchronizer
             }
             if (acquireQueued(node, savedState) && interruptMode != THROW_IE)
                 interruptMode = REINTERRUPT;
-            if (node.nextWaiter != null)
-                unlinkCancelledWaiters();
+            if (timedout || interruptMode == THROW_IE)
+                cancelledWaiter(node);
             if (interruptMode != 0)
                 reportInterruptAfterWait(interruptMode);
             return !timedout;
@@ -1964,8 +3493,8 @@ public abstract class AbstractQueuedLongSynchronizer
             }
             if (acquireQueued(node, savedState) && interruptMode != THROW_IE)
                 interruptMode = REINTERRUPT;
-            if (node.nextWaiter != null)
-                unlinkCancelledWaiters();
+            if (timedout || interruptMode == THROW_IE)
+                cancelledWaiter(node);
             if (interruptMode != 0)
                 reportInterruptAfterWait(interruptMode);
             return !timedout;
@@ -2003,7 +3532,9 @@ public abstract class AbstractQueuedLongSynchronizer
 
         /**
          * Returns an estimate of the number of threads waiting on
-         * this condition.
+         * this condition, in constant time.  Waits that have been
+         * cancelled, but whose threads have not yet reacquired, are
+         * still included.
          * Implements {@link AbstractQueuedLongSynchronizer#getWaitQueueLength}.
          *
          * @return the estimated number of waiting threads
@@ -2013,12 +3544,7 @@ public abstract class AbstractQueuedLongSynchronizer
         protected final int getWaitQueueLength() {
             if (!isHeldExclusively())
                 throw new IllegalMonitorStateException();
-            int n = 0;
-            for (Node w = firstWaiter; w != null; w = w.nextWaiter) {
-                if (w.waitStatus == Node.CONDITION)
-                    ++n;
-            }
-            return n;
+            return waiters - cancelledWaiters;
         }
 
         /**
@@ -2060,6 +3586,8 @@ public abstract class AbstractQueuedLongSynchronizer
     private static final long tailOffset;
     private static final long waitStatusOffset;
     private static final long nextOffset;
+    private static final long cancelledNodesOffset;
+    private static final long grantOffset;
 
     static {
         try {
@@ -2073,6 +3601,10 @@ public abstract class AbstractQueuedLongSynchronizer
                 (Node.class.getDeclaredField("waitStatus"));
             nextOffset = unsafe.objectFieldOffset
                 (Node.class.getDeclaredField("next"));
+            grantOffset = unsafe.objectFieldOffset
+                (Node.class.getDeclaredField("grant"));
+            cancelledNodesOffset = unsafe.objectFieldOffset
+                (AbstractQueuedLongSynchronizer.class.getDeclaredField("cancelledNodes"));
 
         } catch (Exception ex) { throw new Error(ex); }
     }
@@ -2101,6 +3633,15 @@ public abstract class AbstractQueuedLongSynchronizer
                                         expect, update);
     }
 
+    /**
+     * CAS grant field of a node.
+     */
+    private static final boolean compareAndSetGrant(Node node,
+                                                    int expect,
+                                                    int update) {
+        return unsafe.compareAndSwapInt(node, grantOffset, expect, update);
+    }
+
     /**
      * CAS next field of a node.
      */
@@ -0,0 +1,177 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Skeletal implementation of the {@link Lock} methods shared by the
+ * spin-based queue locks {@link TicketLock}, {@link MCSLock}, {@link
+ * CLHLock} and {@link TimePublishedMCSLock}, in terms of a single
+ * {@link #acquire} method that waits, abandoning the wait upon
+ * interrupt or timeout if requested.
+ *
+ * <p>Waiting threads spin, yielding the processor after a short
+ * while, rather than blocking, so these locks are appropriate only
+ * when hold times are short and there are no more waiting threads
+ * than processors.  They are not reentrant, and do not support
+ * conditions.  As required for {@link #unlock}, the owning thread is
+ * recorded, but only by the owner, so that acquiring and releasing
+ * involve no further atomic instructions.
+ */
+abstract class AbstractSpinLock implements Lock {
+
+    /** Number of CPUS, to place bounds on spinning */
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /** Number of spins before yielding the processor between spins */
+    static final int MAX_SPINS = (NCPU < 2) ? 0 : 1 << 7;
+
+    /** The owning thread, written only by the owner */
+    Thread owner;
+
+    /**
+     * Acquires the lock, waiting if necessary.
+     *
+     * @param interruptible if true, give up if the current thread
+     *        is interrupted, leaving its interrupt status set
+     * @param timed if true, give up at the deadline
+     * @param deadline the deadline, per System.nanoTime, if timed
+     * @return {@code true} if acquired, {@code false} if given up
+     */
+    abstract boolean acquire(boolean interruptible, boolean timed,
+                             long deadline);
+
+    /**
+     * Returns true if a waiting acquire should give up.
+     */
+    static boolean shouldAbandon(boolean interruptible, boolean timed,
+                                 long deadline) {
+        return ((interruptible && Thread.currentThread().isInterrupted()) ||
+                (timed && deadline - System.nanoTime() <= 0L));
+    }
+
+    /**
+     * Performs a spin of a waiting acquire, yielding if the thread
+     * has spun for a while.
+     *
+     * @param spins the number of previous spins
+     * @return the number of spins including this one
+     */
+    static int spin(int spins) {
+        if (spins >= MAX_SPINS)
+            Thread.yield();
+        return spins + 1;
+    }
+
+    /**
+     * Throws IllegalMonitorStateException unless the current thread
+     * is the owner, and otherwise records that it no longer is.
+     */
+    final void releaseOwnership() {
+        if (owner != Thread.currentThread())
+            throw new IllegalMonitorStateException();
+        owner = null;
+    }
+
+    /**
+     * Acquires the lock, waiting while it is held by another thread.
+     */
+    public void lock() {
+        acquire(false, false, 0L);
+    }
+
+    /**
+     * Acquires the lock unless the current thread is
+     * {@linkplain Thread#interrupt interrupted}.
+     *
+     * @throws InterruptedException if the current thread is
+     *         interrupted on entry or while waiting
+     */
+    public void lockInterruptibly() throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        if (!acquire(true, false, 0L)) {
+            Thread.interrupted(); // clear status, as required
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Acquires the lock if it becomes available within the given
+     * waiting time and the current thread has not been
+     * {@linkplain Thread#interrupt interrupted}.  Unlike {@link
+     * #tryLock()}, this method waits in turn with other waiting
+     * threads.
+     *
+     * @param timeout the maximum time to wait for the lock
+     * @param unit the time unit of the timeout argument
+     * @return {@code true} if the lock was acquired and {@code false}
+     *         if the waiting time elapsed before the lock was acquired
+     * @throws InterruptedException if the current thread is
+     *         interrupted on entry or while waiting
+     * @throws NullPointerException if unit is null
+     */
+    public boolean tryLock(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        if (nanos <= 0L)
+            return tryLock();
+        if (acquire(true, true, System.nanoTime() + nanos))
+            return true;
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        return false;
+    }
+
+    /**
+     * Throws {@code UnsupportedOperationException}, as spin locks do
+     * not support conditions.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    public Condition newCondition() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Queries if this lock is held by the current thread.
+     *
+     * @return {@code true} if current thread holds this lock and
+     *         {@code false} otherwise
+     */
+    public boolean isHeldByCurrentThread() {
+        return owner == Thread.currentThread();
+    }
+
+    /**
+     * Queries if this lock is held by any thread. This method is
+     * designed for use in monitoring of the system state,
+     * not for synchronization control.
+     *
+     * @return {@code true} if any thread holds this lock and
+     *         {@code false} otherwise
+     */
+    public abstract boolean isLocked();
+
+    /**
+     * Returns a string identifying this lock, as well as its lock
+     * state.  The state, in brackets, includes either the String
+     * {@code "Unlocked"} or the String {@code "Locked by"} followed
+     * by the {@linkplain Thread#getName name} of the owning thread,
+     * if known.
+     *
+     * @return a string identifying this lock, as well as its lock state
+     */
+    public String toString() {
+        Thread o = owner;
+        return super.toString() + ((o == null) ?
+                                   (isLocked() ? "[Locked]" : "[Unlocked]") :
+                                   "[Locked by thread " + o.getName() + "]");
+    }
+}
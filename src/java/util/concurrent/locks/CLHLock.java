@@ -0,0 +1,137 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A FIFO spin lock in which waiting threads form an implicit queue,
+ * as described by Craig, Landin and Hagersten, each spinning on the
+ * node of its predecessor.  Like {@link MCSLock}, the cache traffic
+ * per release does not grow with the number of waiting threads, and
+ * a release is a single write, with no atomic instruction, though
+ * each waiting thread spins on a node written by another thread.
+ *
+ * <p>A thread giving up waiting, upon interrupt or timeout, marks
+ * its node as abandoned, recording the predecessor it was waiting
+ * on, as described by Scott, so that its successor then waits on
+ * that predecessor instead.
+ *
+ * <p>Waiting threads spin rather than block, and this lock is not
+ * reentrant and does not support conditions; see {@link
+ * #newCondition}.  The {@link #tryLock()} method acquires only if no
+ * thread is waiting, so never barges ahead of waiting threads.
+ */
+public class CLHLock extends AbstractSpinLock {
+
+    /** Node status values */
+    static final int WAITING   = 0;
+    static final int RELEASED  = 1;
+    static final int ABANDONED = 2;
+
+    /**
+     * Queue node.  The status is WAITING while its thread holds or
+     * waits for the lock, and is set once, to RELEASED by its thread
+     * upon release, or to ABANDONED by its thread upon giving up,
+     * after setting pred.
+     */
+    static final class Node {
+        volatile int status;
+        /** The predecessor, set only if abandoned */
+        Node pred;
+
+        Node(int status) {
+            this.status = status;
+        }
+    }
+
+    /** The last node in the queue; initially a released node */
+    private volatile Node tail = new Node(RELEASED);
+
+    /** The node of the owner, accessed only by the owner */
+    private Node holder;
+
+    private static final AtomicReferenceFieldUpdater<CLHLock, Node>
+        tailUpdater = AtomicReferenceFieldUpdater.newUpdater
+        (CLHLock.class, Node.class, "tail");
+
+    /**
+     * Creates a new {@code CLHLock}.
+     */
+    public CLHLock() {
+    }
+
+    final boolean acquire(boolean interruptible, boolean timed,
+                          long deadline) {
+        Node node = new Node(WAITING);
+        Node pred = tailUpdater.getAndSet(this, node);
+        for (int spins = 0;;) {
+            int s = pred.status;
+            if (s == RELEASED)
+                break;
+            if (s == ABANDONED)
+                pred = pred.pred;
+            else if (shouldAbandon(interruptible, timed, deadline)) {
+                node.pred = pred;
+                node.status = ABANDONED;
+                return false;
+            }
+            else
+                spins = spin(spins);
+        }
+        holder = node;
+        owner = Thread.currentThread();
+        return true;
+    }
+
+    /**
+     * Returns the status of the given node, or of its nearest
+     * predecessor that has not been abandoned.
+     */
+    private static int effectiveStatus(Node p) {
+        int s;
+        while ((s = p.status) == ABANDONED)
+            p = p.pred;
+        return s;
+    }
+
+    /**
+     * Acquires the lock only if no other thread holds or is waiting
+     * for it.
+     *
+     * @return {@code true} if the lock was acquired and
+     *         {@code false} otherwise
+     */
+    public boolean tryLock() {
+        Node t = tail;
+        Node node;
+        if (effectiveStatus(t) == RELEASED &&
+            tailUpdater.compareAndSet(this, t, node = new Node(WAITING))) {
+            holder = node;
+            owner = Thread.currentThread();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Releases this lock, passing it to the next waiting thread, if
+     * any.
+     *
+     * @throws IllegalMonitorStateException if the current thread does not
+     *         hold this lock
+     */
+    public void unlock() {
+        releaseOwnership();
+        Node node = holder;
+        holder = null;
+        node.status = RELEASED;
+    }
+
+    public boolean isLocked() {
+        return effectiveStatus(tail) != RELEASED;
+    }
+}
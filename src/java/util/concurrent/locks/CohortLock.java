@@ -0,0 +1,618 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hierarchical mutual exclusion {@link Lock} that reduces transfers
+ * of lock ownership, and of the data it protects, between processor
+ * groups such as the sockets (NUMA nodes) of a multi-socket machine.
+ * A cohort lock consists of a global lock, and a local lock for each
+ * group of processors.  A thread first acquires the local lock of the
+ * group of the processor it is running on, and then the global lock,
+ * unless the global lock was passed to it along with the local lock.
+ * Upon unlock, if other threads of the same group are waiting for the
+ * local lock, the global lock is passed to them along with it, up to
+ * a configurable number of consecutive times; otherwise the global
+ * lock is released, allowing threads of another group to acquire.
+ *
+ * <p>By default, the mapping of processors to groups is that of the
+ * NUMA nodes reported by Linux in {@code /sys/devices/system/node},
+ * and the processor on which a thread is running is obtained from
+ * {@code /proc/thread-self/stat}, sampled upon a thread's first use
+ * of any cohort lock and periodically thereafter.  When this
+ * information is unavailable, all processors belong to a single
+ * group, in which case this lock behaves as an ordinary lock.  The
+ * mapping may instead be given explicitly when constructing a lock.
+ *
+ * <p>This lock is not reentrant, and does not guarantee any
+ * particular access order.  A thread passed the lock by a thread of
+ * its group may acquire it ahead of threads of other groups that
+ * have waited longer, though no longer than the batch limit permits.
+ * Methods {@link #getIntraNodeHandoffCount} and {@link
+ * #getCrossNodeHandoffCount} report how often ownership was passed
+ * within and between groups, for use in tuning.
+ *
+ * <p>Conditions obtained from {@link #newCondition} behave as do
+ * those of {@link ReentrantLock}, except that a thread returning from
+ * waiting reacquires only the global lock, so is not favored over
+ * other threads of its group.
+ */
+public class CohortLock implements Lock {
+
+    /** Default number of consecutive handoffs within a group */
+    static final int DEFAULT_BATCH_LIMIT = 64;
+
+    /** Number of acquires between samples of a thread's processor */
+    static final int CPU_SAMPLE_INTERVAL = 1 << 10;
+
+    /**
+     * The global lock.  Acquired by the first thread of a cohort to
+     * acquire, and then owned by each thread of the cohort in turn.
+     */
+    static final class GlobalSync extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = 2871283506632468742L;
+
+        /**
+         * The local lock held along with this lock, or null if held
+         * without one, after a condition wait.  Accessed only by the
+         * owner.
+         */
+        LocalSync holderLocal;
+
+        /** The local lock of the last cohort to acquire this lock */
+        LocalSync lastLocal;
+
+        /** Handoff counts, updated only by the owner */
+        long intraNodeHandoffs, crossNodeHandoffs;
+
+        protected boolean tryAcquire(int acquires) {
+            if (getState() == 0 && compareAndSetState(0, 1)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Releases, along with the local lock if held.  Performed here
+         * rather than by unlock so that condition waits also release
+         * the local lock.
+         */
+        protected boolean tryRelease(int releases) {
+            if (getExclusiveOwnerThread() != Thread.currentThread())
+                throw new IllegalMonitorStateException();
+            LocalSync l = holderLocal;
+            holderLocal = null;
+            setExclusiveOwnerThread(null);
+            if (l != null)
+                l.globalHeld = false;
+            setState(0);
+            if (l != null)
+                l.release(1);
+            return true;
+        }
+
+        protected boolean isHeldExclusively() {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        boolean tryLock() {
+            return tryAcquire(1);
+        }
+
+        /**
+         * Records that the current thread, holding the given local
+         * lock, now owns this lock.
+         */
+        void setOwner(LocalSync l) {
+            setExclusiveOwnerThread(Thread.currentThread());
+            holderLocal = l;
+        }
+
+        /**
+         * Records that the owner has passed this lock to its cohort.
+         */
+        void clearOwner() {
+            holderLocal = null;
+            setExclusiveOwnerThread(null);
+        }
+
+        ConditionObject newCondition() {
+            return new ConditionObject();
+        }
+
+        Thread getOwner() {
+            return getState() == 0 ? null : getExclusiveOwnerThread();
+        }
+    }
+
+    /**
+     * The local lock of a group.  Ownership is not recorded, as it
+     * is recorded by the global lock whenever it matters.
+     */
+    static final class LocalSync extends AbstractQueuedSynchronizer {
+        private static final long serialVersionUID = -4396287316407294215L;
+
+        /**
+         * True if the global lock is held by this cohort, in which
+         * case it is owned by the holder of this lock if any.
+         */
+        volatile boolean globalHeld;
+
+        /** Number of consecutive handoffs within the cohort */
+        int handoffs;
+
+        protected boolean tryAcquire(int acquires) {
+            return getState() == 0 && compareAndSetState(0, 1);
+        }
+
+        protected boolean tryRelease(int releases) {
+            setState(0);
+            return true;
+        }
+
+        boolean tryLock() {
+            return tryAcquire(1);
+        }
+    }
+
+    /** The global lock */
+    private final GlobalSync global = new GlobalSync();
+
+    /** The local locks, indexed by group */
+    private final LocalSync[] locals;
+
+    /** Group of each processor; processors not listed are in group 0 */
+    private final int[] cpuToNode;
+
+    private final int batchLimit;
+
+    /**
+     * Creates a {@code CohortLock} with the default batch limit and
+     * the processor groups reported by the operating system.
+     */
+    public CohortLock() {
+        this(DEFAULT_BATCH_LIMIT);
+    }
+
+    /**
+     * Creates a {@code CohortLock} with the given batch limit and the
+     * processor groups reported by the operating system.
+     *
+     * @param batchLimit the maximum number of consecutive times the
+     *        lock is passed between threads of the same group while
+     *        threads of other groups may be waiting
+     * @throws IllegalArgumentException if batchLimit is less than one
+     */
+    public CohortLock(int batchLimit) {
+        this(batchLimit, Topology.CPU_TO_NODE);
+    }
+
+    /**
+     * Creates a {@code CohortLock} with the given batch limit and
+     * processor groups.
+     *
+     * @param batchLimit the maximum number of consecutive times the
+     *        lock is passed between threads of the same group while
+     *        threads of other groups may be waiting
+     * @param cpuToNode the group of each processor, indexed by
+     *        processor number as used by the operating system;
+     *        processors beyond the end of the array are in group zero
+     * @throws IllegalArgumentException if batchLimit is less than one
+     *         or any group is negative
+     * @throws NullPointerException if cpuToNode is null
+     */
+    public CohortLock(int batchLimit, int[] cpuToNode) {
+        if (batchLimit < 1)
+            throw new IllegalArgumentException();
+        int[] map = cpuToNode.clone();
+        int nodes = 1;
+        for (int n : map) {
+            if (n < 0)
+                throw new IllegalArgumentException();
+            if (n >= nodes)
+                nodes = n + 1;
+        }
+        LocalSync[] ls = new LocalSync[nodes];
+        for (int i = 0; i < nodes; ++i)
+            ls[i] = new LocalSync();
+        this.batchLimit = batchLimit;
+        this.cpuToNode = map;
+        this.locals = ls;
+    }
+
+    /**
+     * Returns the local lock for the processor the current thread is
+     * running on.
+     */
+    private LocalSync localLock() {
+        LocalSync[] ls = locals;
+        if (ls.length == 1)
+            return ls[0];
+        int cpu = Topology.currentCpu();
+        int[] map = cpuToNode;
+        return ls[(cpu >= 0 && cpu < map.length) ? map[cpu] : 0];
+    }
+
+    /**
+     * Completes an acquire by the current thread, which holds the
+     * given local lock, if the global lock was passed along with it.
+     *
+     * @return {@code true} if the lock is now held
+     */
+    private boolean acquiredByHandoff(LocalSync l) {
+        if (!l.globalHeld)
+            return false;
+        GlobalSync g = global;
+        g.setOwner(l);
+        ++g.intraNodeHandoffs;
+        return true;
+    }
+
+    /**
+     * Completes an acquire by the current thread, which holds the
+     * given local lock and has just acquired the global lock.
+     */
+    private void acquiredGlobal(LocalSync l) {
+        GlobalSync g = global;
+        l.handoffs = 0;
+        l.globalHeld = true;
+        g.holderLocal = l;
+        LocalSync last = g.lastLocal;
+        if (last != l) {
+            if (last != null)
+                ++g.crossNodeHandoffs;
+            g.lastLocal = l;
+        }
+    }
+
+    /**
+     * Releases the global lock if it was passed to a cohort all of
+     * whose waiting threads then gave up, so that the local lock is
+     * free with no waiters while its cohort holds the global lock.
+     * Invoked by threads that may have caused this: those passing
+     * the lock when the cohort's waiters may be giving up, and those
+     * giving up.  At least one of them sees the other's action.
+     */
+    private void relinquishIfAbandoned(LocalSync l) {
+        if (l.globalHeld && !l.hasQueuedThreads() && l.tryLock()) {
+            if (l.globalHeld) {
+                global.setOwner(l);
+                unlock();
+            }
+            else
+                l.release(1);
+        }
+    }
+
+    /**
+     * Acquires the lock.
+     *
+     * <p>Acquires the lock if it is not held by another thread and
+     * returns immediately.  If the lock is held by another thread
+     * then the current thread becomes disabled for thread scheduling
+     * purposes and lies dormant until the lock has been acquired.
+     * This lock is not reentrant, so a thread attempting to acquire
+     * it while holding it waits forever.
+     */
+    public void lock() {
+        LocalSync l = localLock();
+        l.acquire(1);
+        if (!acquiredByHandoff(l)) {
+            global.acquire(1);
+            acquiredGlobal(l);
+        }
+    }
+
+    /**
+     * Acquires the lock unless the current thread is
+     * {@linkplain Thread#interrupt interrupted}, as does {@link
+     * ReentrantLock#lockInterruptibly}, except that this lock is not
+     * reentrant.
+     *
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void lockInterruptibly() throws InterruptedException {
+        LocalSync l = localLock();
+        try {
+            l.acquireInterruptibly(1);
+        } catch (InterruptedException ex) {
+            relinquishIfAbandoned(l);
+            throw ex;
+        }
+        if (!acquiredByHandoff(l)) {
+            try {
+                global.acquireInterruptibly(1);
+            } catch (InterruptedException ex) {
+                l.release(1);
+                throw ex;
+            }
+            acquiredGlobal(l);
+        }
+    }
+
+    /**
+     * Acquires the lock only if it is not held by another thread at
+     * the time of invocation.
+     *
+     * @return {@code true} if the lock was free and was acquired by
+     *         the current thread; and {@code false} otherwise
+     */
+    public boolean tryLock() {
+        LocalSync l = localLock();
+        if (!l.tryLock())
+            return false;
+        if (acquiredByHandoff(l))
+            return true;
+        if (global.tryLock()) {
+            acquiredGlobal(l);
+            return true;
+        }
+        l.release(1);
+        return false;
+    }
+
+    /**
+     * Acquires the lock if it is not held by another thread within
+     * the given waiting time and the current thread has not been
+     * {@linkplain Thread#interrupt interrupted}, as does {@link
+     * ReentrantLock#tryLock(long, TimeUnit)}, except that this lock
+     * is not reentrant.
+     *
+     * @param timeout the time to wait for the lock
+     * @param unit the time unit of the timeout argument
+     * @return {@code true} if the lock was free and was acquired by the
+     *         current thread; and {@code false} if the waiting time
+     *         elapsed before the lock could be acquired
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws NullPointerException if the time unit is null
+     */
+    public boolean tryLock(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + nanos;
+        LocalSync l = localLock();
+        boolean acquired;
+        try {
+            acquired = l.tryAcquireNanos(1, nanos);
+        } catch (InterruptedException ex) {
+            relinquishIfAbandoned(l);
+            throw ex;
+        }
+        if (!acquired) {
+            relinquishIfAbandoned(l);
+            return false;
+        }
+        if (acquiredByHandoff(l))
+            return true;
+        try {
+            acquired = global.tryAcquireNanos(1, deadline - System.nanoTime());
+        } catch (InterruptedException ex) {
+            l.release(1);
+            throw ex;
+        }
+        if (!acquired) {
+            l.release(1);
+            return false;
+        }
+        acquiredGlobal(l);
+        return true;
+    }
+
+    /**
+     * Releases this lock.  If threads of the current thread's group
+     * are waiting, and the lock has been passed within the group
+     * fewer than the batch limit consecutive times, the lock is
+     * passed to one of them; otherwise it is released.
+     *
+     * @throws IllegalMonitorStateException if the current thread does not
+     *         hold this lock
+     */
+    public void unlock() {
+        GlobalSync g = global;
+        if (g.getExclusiveOwnerThread() != Thread.currentThread())
+            throw new IllegalMonitorStateException();
+        LocalSync l = g.holderLocal;
+        if (l != null && l.handoffs < batchLimit && l.hasQueuedThreads()) {
+            ++l.handoffs;
+            g.clearOwner();
+            l.release(1);
+            if (!l.hasQueuedThreads())
+                relinquishIfAbandoned(l);
+        }
+        else
+            g.release(1);
+    }
+
+    /**
+     * Returns a {@link Condition} instance for use with this
+     * {@link Lock} instance, with the same properties as those of
+     * {@link ReentrantLock#newCondition}, except that waiting threads
+     * reacquire the lock without regard to processor groups.
+     *
+     * @return the Condition object
+     */
+    public Condition newCondition() {
+        return global.newCondition();
+    }
+
+    /**
+     * Queries if this lock is held by the current thread.
+     *
+     * @return {@code true} if current thread holds this lock and
+     *         {@code false} otherwise
+     */
+    public boolean isHeldByCurrentThread() {
+        return global.isHeldExclusively();
+    }
+
+    /**
+     * Queries if this lock is held by any thread. This method is
+     * designed for use in monitoring of the system state,
+     * not for synchronization control.
+     *
+     * @return {@code true} if any thread holds this lock and
+     *         {@code false} otherwise
+     */
+    public boolean isLocked() {
+        return global.getState() != 0;
+    }
+
+    /**
+     * Returns the number of processor groups, each with its own
+     * local lock.
+     *
+     * @return the number of groups
+     */
+    public int getNodeCount() {
+        return locals.length;
+    }
+
+    /**
+     * Returns the number of times the lock was passed between threads
+     * of the same group without releasing the global lock.  The
+     * value is only an estimate, as it is read without
+     * synchronization.  This method is designed for use in
+     * monitoring and tuning, not for synchronization control.
+     *
+     * @return the number of handoffs within groups
+     */
+    public long getIntraNodeHandoffCount() {
+        return global.intraNodeHandoffs;
+    }
+
+    /**
+     * Returns the number of times the global lock was acquired by a
+     * thread of a different group than the thread that last acquired
+     * it.  The value is only an estimate, as it is read without
+     * synchronization.  This method is designed for use in
+     * monitoring and tuning, not for synchronization control.
+     *
+     * @return the number of handoffs between groups
+     */
+    public long getCrossNodeHandoffCount() {
+        return global.crossNodeHandoffs;
+    }
+
+    /**
+     * Returns a string identifying this lock, as well as its lock state.
+     * The state, in brackets, includes either the String {@code "Unlocked"}
+     * or the String {@code "Locked by"} followed by the
+     * {@linkplain Thread#getName name} of the owning thread.
+     *
+     * @return a string identifying this lock, as well as its lock state
+     */
+    public String toString() {
+        Thread o = global.getOwner();
+        return super.toString() + ((o == null) ?
+                                   "[Unlocked]" :
+                                   "[Locked by thread " + o.getName() + "]");
+    }
+
+    /**
+     * Processor topology, read upon first use.
+     */
+    static final class Topology {
+        /** NUMA node of each processor, per sysfs */
+        static final int[] CPU_TO_NODE = readCpuToNode();
+
+        /** Per-thread processor, and acquires until next sample */
+        static final ThreadLocal<int[]> threadCpu = new ThreadLocal<int[]>();
+
+        /** Set if the current processor cannot be determined */
+        static volatile boolean cpuUnavailable;
+
+        /**
+         * Returns the processor the current thread was recently
+         * running on, or -1 if unknown.
+         */
+        static int currentCpu() {
+            if (cpuUnavailable)
+                return -1;
+            int[] c = threadCpu.get();
+            if (c == null)
+                threadCpu.set(c = new int[] { -1, 0 });
+            if (--c[1] < 0) {
+                c[0] = readCurrentCpu();
+                c[1] = CPU_SAMPLE_INTERVAL;
+            }
+            return c[0];
+        }
+
+        /**
+         * Reads the processor field of the current thread's stat
+         * file, the 39th field, counting from the pid.
+         */
+        static int readCurrentCpu() {
+            try {
+                String s = readFile("/proc/thread-self/stat");
+                // The command name field may contain spaces
+                String[] fields = s.substring(s.lastIndexOf(')') + 2)
+                    .split(" ");
+                return Integer.parseInt(fields[39 - 3]);
+            } catch (Exception ex) { // IOException, or malformed
+                cpuUnavailable = true;
+                return -1;
+            }
+        }
+
+        /**
+         * Reads the cpulist of each node directory, returning an
+         * empty map, so that all processors are taken to be in one
+         * node, if sysfs cannot be read.
+         */
+        static int[] readCpuToNode() {
+            int[] map = new int[0];
+            try {
+                File[] dirs = new File("/sys/devices/system/node").listFiles();
+                if (dirs == null)
+                    return map;
+                for (File d : dirs) {
+                    String name = d.getName();
+                    if (!name.matches("node[0-9]+"))
+                        continue;
+                    int node = Integer.parseInt(name.substring(4));
+                    String list = readFile(d.getPath() + "/cpulist").trim();
+                    if (list.length() == 0)
+                        continue;
+                    for (String range : list.split(",")) {
+                        int dash = range.indexOf('-');
+                        int lo = Integer.parseInt
+                            ((dash < 0) ? range : range.substring(0, dash));
+                        int hi = (dash < 0) ? lo :
+                            Integer.parseInt(range.substring(dash + 1));
+                        if (hi >= map.length)
+                            map = java.util.Arrays.copyOf(map, hi + 1);
+                        for (int cpu = lo; cpu <= hi; ++cpu)
+                            map[cpu] = node;
+                    }
+                }
+            } catch (Exception ex) { // I/O or security failure, or malformed
+                return new int[0];
+            }
+            return map;
+        }
+
+        static String readFile(String path) throws IOException {
+            FileInputStream in = new FileInputStream(path);
+            try {
+                byte[] buf = new byte[4096];
+                int n = 0, r;
+                while (n < buf.length &&
+                       (r = in.read(buf, n, buf.length - n)) > 0)
+                    n += r;
+                return new String(buf, 0, n, "US-ASCII");
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Contention statistics collected by {@link
+ * AbstractQueuedSynchronizer} and {@link
+ * AbstractQueuedLongSynchronizer} once monitoring is enabled.  All
+ * recording methods are invoked only from the queued (slow) paths of
+ * acquire methods.  Management classes are loaded only upon
+ * registration, so that synchronizers that are never monitored do
+ * not depend on them.
+ */
+final class ContentionStatistics implements SynchronizerContentionMXBean {
+
+    /** Domain and type of registered object names */
+    static final String OBJECT_NAME_PREFIX =
+        "java.util.concurrent.locks:type=Synchronizer,name=";
+
+    /** Number of wait time buckets; the last covers waits over 9 minutes */
+    static final int WAIT_TIME_BUCKETS = 40;
+
+    /** Number of queue depth buckets */
+    static final int QUEUE_DEPTH_BUCKETS = 20;
+
+    private final String name;
+    private final AtomicLong contendedAcquires = new AtomicLong();
+    private final AtomicLong parks = new AtomicLong();
+    private final AtomicLong cancellations = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLongArray waitTimes =
+        new AtomicLongArray(WAIT_TIME_BUCKETS);
+    private final AtomicLongArray queueDepths =
+        new AtomicLongArray(QUEUE_DEPTH_BUCKETS);
+
+    ContentionStatistics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the histogram bucket for the given non-negative sample.
+     */
+    static int bucketFor(long v, int buckets) {
+        int b = 64 - Long.numberOfLeadingZeros(v);
+        return (b < buckets) ? b : buckets - 1;
+    }
+
+    private static long[] snapshot(AtomicLongArray a) {
+        int n = a.length();
+        long[] r = new long[n];
+        for (int i = 0; i < n; ++i)
+            r[i] = a.get(i);
+        return r;
+    }
+
+    // Recording methods
+
+    /**
+     * Records that the current thread has entered the wait queue.
+     * @return the start time of the wait, to pass to acquired
+     */
+    long enqueued() {
+        int depth = queued.getAndIncrement();
+        queueDepths.getAndIncrement(bucketFor(depth, QUEUE_DEPTH_BUCKETS));
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a successful acquire after waiting.
+     * @param startTime the value returned by enqueued
+     */
+    void acquired(long startTime) {
+        long waited = System.nanoTime() - startTime;
+        queued.getAndDecrement();
+        contendedAcquires.getAndIncrement();
+        waitTimes.getAndIncrement(bucketFor(waited < 0L ? 0L : waited,
+                                            WAIT_TIME_BUCKETS));
+    }
+
+    /**
+     * Records an abandoned acquire after waiting.
+     */
+    void cancelled() {
+        queued.getAndDecrement();
+        cancellations.getAndIncrement();
+    }
+
+    void parked() {
+        parks.getAndIncrement();
+    }
+
+    void timedOut() {
+        timeouts.getAndIncrement();
+    }
+
+    // Registration
+
+    /**
+     * Registers this object with the platform MBean server.
+     *
+     * @throws IllegalArgumentException if the name is malformed or
+     *         already registered
+     */
+    void register() {
+        try {
+            java.lang.management.ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(this, objectName());
+        } catch (javax.management.JMException ex) {
+            throw new IllegalArgumentException(name, ex);
+        }
+    }
+
+    /**
+     * Unregisters this object, if registered.
+     */
+    void unregister() {
+        try {
+            java.lang.management.ManagementFactory.getPlatformMBeanServer()
+                .unregisterMBean(objectName());
+        } catch (javax.management.JMException ignore) {
+            // already unregistered
+        }
+    }
+
+    private javax.management.ObjectName objectName()
+        throws javax.management.MalformedObjectNameException {
+        return new javax.management.ObjectName
+            (OBJECT_NAME_PREFIX + javax.management.ObjectName.quote(name));
+    }
+
+    // SynchronizerContentionMXBean methods
+
+    public String getName() {
+        return name;
+    }
+
+    public long getContendedAcquireCount() {
+        return contendedAcquires.get();
+    }
+
+    public long getParkCount() {
+        return parks.get();
+    }
+
+    public long getCancelledAcquireCount() {
+        return cancellations.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    public long[] getWaitTimeHistogram() {
+        return snapshot(waitTimes);
+    }
+
+    public long[] getQueueDepthHistogram() {
+        return snapshot(queueDepths);
+    }
+
+    /**
+     * Resets counts and histograms.  The number of queued threads is
+     * a gauge rather than a count, so is not reset.
+     */
+    public void reset() {
+        contendedAcquires.set(0L);
+        parks.set(0L);
+        cancellations.set(0L);
+        timeouts.set(0L);
+        for (int i = 0; i < WAIT_TIME_BUCKETS; ++i)
+            waitTimes.set(i, 0L);
+        for (int i = 0; i < QUEUE_DEPTH_BUCKETS; ++i)
+            queueDepths.set(i, 0L);
+    }
+
+    public String toString() {
+        return super.toString() + "[" + name +
+            ", contended acquires = " + getContendedAcquireCount() +
+            ", parks = " + getParkCount() +
+            ", cancelled = " + getCancelledAcquireCount() +
+            ", timeouts = " + getTimeoutCount() + "]";
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An executor of operations on a shared state object, performing
+ * them one at a time using <em>flat combining</em>.  Rather than each
+ * thread acquiring a lock and then performing its own operation, a
+ * thread publishes its operation in a slot of its own, and whichever
+ * thread holds the combiner lock performs all published operations
+ * in a batch, and publishes their results.  For short operations on
+ * small shared structures such as counters or small maps, this
+ * avoids moving the lock and the structure between processors for
+ * each operation, which often costs more than the operation itself.
+ *
+ * <p>A thread whose operation is not performed promptly spins for a
+ * short while, and then waits in the queue of the combiner lock, an
+ * {@link AbstractQueuedSynchronizer}, leaving the queue once either
+ * its operation has been performed by another thread, or it acquires
+ * the lock and performs the pending operations itself.
+ *
+ * <p>All operations on the state object are performed while holding
+ * the combiner lock, so are mutually exclusive, and each happens-before
+ * the return of the {@link #execute} call that submitted it, and any
+ * subsequently performed operation.  Operations must not themselves
+ * invoke {@code execute} on the same combiner, as the combining thread
+ * cannot wait for itself.  An exception thrown by an operation is
+ * rethrown by the call that submitted it, and does not affect other
+ * operations.
+ *
+ * <p>A typical usage is:
+ *
+ * <pre>
+ * class Histogram {
+ *   private final FlatCombiner&lt;long[]&gt; combiner =
+ *     new FlatCombiner&lt;long[]&gt;(new long[16]);
+ *
+ *   public long increment(final int bucket) {
+ *     return combiner.execute(new FlatCombiner.Operation&lt;long[], Long&gt;() {
+ *       public Long apply(long[] counts) { return ++counts[bucket]; }});
+ *   }
+ * }
+ * </pre>
+ *
+ * @param <S> the type of the shared state
+ */
+public class FlatCombiner<S> {
+
+    /**
+     * An operation performed by a {@link FlatCombiner} on its shared
+     * state.
+     *
+     * @param <S> the type of the shared state
+     * @param <R> the type of the result
+     */
+    public interface Operation<S, R> {
+        /**
+         * Performs this operation.
+         *
+         * @param state the shared state
+         * @return the result
+         */
+        R apply(S state);
+    }
+
+    /*
+     * Each thread has a Slot, found via a ThreadLocal, that is linked
+     * into the publication list, a stack of slots pushed using CAS on
+     * top.  A thread publishes an operation by setting the op field
+     * of its slot, and the combiner performs it, stores its outcome,
+     * and then clears op, so a thread seeing op cleared may read the
+     * outcome.  Only the combiner removes slots, other than the top
+     * one, so only pushes race with removals, and these never modify
+     * the same link.  Slots that have not been used for AGE_LIMIT
+     * combining passes are removed, so that the list does not retain
+     * slots of threads that have stopped using the combiner, and are
+     * pushed again by their threads upon the next use.  The listed
+     * field, which becomes UNLISTED only by the combiner and LISTED
+     * only by the slot's thread, both via CAS, ensures that a slot
+     * is pushed only if not in the list.  The combiner rechecks op
+     * after removing a slot, performing an operation published
+     * concurrently, as the slot's thread may have seen it as still
+     * listed.
+     *
+     * The combiner lock is a Sync whose tryAcquire also succeeds,
+     * without acquiring, if the calling thread's operation has been
+     * performed, so that a queued thread leaves the queue either to
+     * combine, or to return.  A thread leaving without acquiring
+     * invokes release(0), which changes no state but wakes the next
+     * queued thread, so that wakeups pass along the queue as threads
+     * leave it.
+     */
+
+    /** Number of passes over the publication list per combining turn */
+    static final int COMBINING_PASSES = 4;
+
+    /** Number of combining passes after which an unused slot is removed */
+    static final int AGE_LIMIT = 1 << 10;
+
+    /** Number of times to poll for completion before queuing */
+    static final int MAX_SPINS =
+        (Runtime.getRuntime().availableProcessors() < 2) ? 0 : 1 << 10;
+
+    static final int UNLISTED = 0;
+    static final int LISTED = 1;
+
+    /**
+     * A thread's publication slot.
+     */
+    static final class Slot {
+        /** The published operation, or null if none pending */
+        volatile Operation<Object, Object> op;
+        /** The result of the last operation */
+        Object result;
+        /** The exception thrown by the last operation, if any */
+        Throwable failure;
+        /** The combining pass in which this slot last had an operation */
+        int lastUsed;
+        /** LISTED or UNLISTED */
+        volatile int listed;
+        /** Next slot in publication list */
+        volatile Slot next;
+
+        static final AtomicIntegerFieldUpdater<Slot> listedUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(Slot.class, "listed");
+
+        boolean casListed(int expect, int update) {
+            return listedUpdater.compareAndSet(this, expect, update);
+        }
+    }
+
+    /**
+     * The combiner lock.  State 1 means held.  Never serialized, as
+     * the enclosing combiner is not serializable.
+     */
+    @SuppressWarnings("serial")
+    final class Sync extends AbstractQueuedSynchronizer {
+        /**
+         * Acquires if free, and otherwise succeeds without acquiring
+         * if the current thread's operation has been performed.
+         */
+        protected boolean tryAcquire(int ignore) {
+            if (compareAndSetState(0, 1)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                return true;
+            }
+            Slot s = slots.get();
+            return s != null && s.op == null;
+        }
+
+        /**
+         * Releases if the argument is one; an argument of zero only
+         * passes a wakeup to the next queued thread.
+         */
+        protected boolean tryRelease(int releases) {
+            if (releases != 0) {
+                setExclusiveOwnerThread(null);
+                setState(0);
+            }
+            return true;
+        }
+
+        protected boolean isHeldExclusively() {
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        boolean tryLock() {
+            if (getState() == 0 && compareAndSetState(0, 1)) {
+                setExclusiveOwnerThread(Thread.currentThread());
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /** The shared state, accessed only while holding the lock */
+    private final S state;
+
+    private final Sync sync = new Sync();
+
+    private final ThreadLocal<Slot> slots = new ThreadLocal<Slot>();
+
+    /** Top of the publication list */
+    private volatile Slot top;
+
+    /** Number of combining passes. Accessed only while holding the lock */
+    private int passes;
+
+    @SuppressWarnings("unchecked")
+    private static final AtomicReferenceFieldUpdater<FlatCombiner<?>, Slot>
+        topUpdater = (AtomicReferenceFieldUpdater<FlatCombiner<?>, Slot>)
+        (AtomicReferenceFieldUpdater<?, Slot>)
+        AtomicReferenceFieldUpdater.newUpdater
+        (FlatCombiner.class, Slot.class, "top");
+
+    /**
+     * Creates a combiner for the given shared state.
+     *
+     * @param state the shared state
+     * @throws NullPointerException if state is null
+     */
+    public FlatCombiner(S state) {
+        if (state == null)
+            throw new NullPointerException();
+        this.state = state;
+    }
+
+    /**
+     * Performs the given operation on the shared state, waiting if
+     * necessary for it to be performed by another thread, and
+     * returns its result.
+     *
+     * @param op the operation
+     * @return the result of the operation
+     * @throws NullPointerException if op is null
+     * @throws IllegalStateException if invoked by an operation of
+     *         this combiner
+     * @throws RuntimeException or Error if thrown by the operation
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R execute(Operation<? super S, ? extends R> op) {
+        if (op == null)
+            throw new NullPointerException();
+        if (sync.isHeldExclusively())
+            throw new IllegalStateException();
+        Slot s = slots.get();
+        if (s == null)
+            slots.set(s = new Slot());
+        s.op = (Operation<Object, Object>)op;
+        if (s.listed == UNLISTED && s.casListed(UNLISTED, LISTED))
+            push(s);
+        for (int spins = 0; s.op != null; ) {
+            if (sync.tryLock())
+                combine();
+            else if (spins < MAX_SPINS)
+                ++spins;
+            else {
+                sync.acquire(1);
+                if (sync.isHeldExclusively())
+                    combine();
+                else
+                    sync.release(0);
+            }
+        }
+        Throwable ex = s.failure;
+        Object r = s.result;
+        s.failure = null;
+        s.result = null;
+        if (ex != null) {
+            if (ex instanceof RuntimeException)
+                throw (RuntimeException)ex;
+            if (ex instanceof Error)
+                throw (Error)ex;
+            throw new RuntimeException(ex);
+        }
+        return (R)r;
+    }
+
+    private void push(Slot s) {
+        Slot t;
+        do {
+            s.next = t = top;
+        } while (!topUpdater.compareAndSet(this, t, s));
+    }
+
+    /**
+     * Performs pending operations, and then releases the lock, which
+     * the current thread holds.
+     */
+    private void combine() {
+        try {
+            for (int i = 0; i < COMBINING_PASSES; ++i) {
+                int p = ++passes;
+                boolean found = false;
+                for (Slot pred = null, s = top; s != null; ) {
+                    Slot next = s.next;
+                    if (s.op != null) {
+                        perform(s);
+                        s.lastUsed = p;
+                        found = true;
+                        pred = s;
+                    }
+                    else if (pred != null && p - s.lastUsed > AGE_LIMIT &&
+                             s.casListed(LISTED, UNLISTED)) {
+                        pred.next = next;
+                        if (s.op != null)
+                            perform(s);
+                    }
+                    else
+                        pred = s;
+                    s = next;
+                }
+                if (!found)
+                    break;
+            }
+        } finally {
+            sync.release(1);
+        }
+    }
+
+    /**
+     * Performs the operation published in the given slot.
+     */
+    private void perform(Slot s) {
+        Operation<Object, Object> op = s.op;
+        try {
+            s.result = op.apply(state);
+        } catch (Throwable ex) {
+            s.failure = ex;
+        }
+        s.op = null;
+    }
+
+    /**
+     * Returns a string identifying this combiner, as well as the
+     * state of its lock.
+     *
+     * @return a string identifying this combiner, as well as the
+     *         state of its lock
+     */
+    public String toString() {
+        Thread o = sync.getExclusiveOwnerThread();
+        return super.toString() + ((o == null) ?
+                                   "[Not combining]" :
+                                   "[Combining by thread " + o.getName() + "]");
+    }
+}
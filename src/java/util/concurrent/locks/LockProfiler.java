@@ -0,0 +1,277 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A sampling profiler recording, per acquiring call site, the time
+ * threads wait to acquire and then hold a {@link ReentrantLock}.
+ * A profiler is attached using {@link ReentrantLock#setProfiler}, and
+ * may be shared by several locks, in which case their call sites are
+ * reported together.
+ *
+ * <p>Each outermost (that is, non-reentrant) acquire is sampled with
+ * probability {@code 1/sampleInterval}.  For a sampled acquire, the
+ * call stack of the acquiring thread is captured, to at most the
+ * configured depth, before it attempts to acquire, and the time
+ * spent acquiring and the time until the matching release are added
+ * to the statistics for that call site.  If a sampled hold exceeds
+ * the configured threshold, the call stack of the thread releasing
+ * the lock is also captured and retained with the outlier, so that
+ * long-holding paths can be identified.  Unsampled acquires cost a
+ * single random number generation; no timing is performed for them.
+ *
+ * <p>Hold times may include time spent waiting on a {@link
+ * Condition} of the lock while it was held.
+ *
+ * <p>A typical usage is:
+ *
+ * <pre>
+ * LockProfiler profiler = new LockProfiler(100, 8, 10, TimeUnit.MILLISECONDS);
+ * lock.setProfiler(profiler);
+ * // ... run workload ...
+ * System.out.println(profiler.report());
+ * </pre>
+ */
+public class LockProfiler {
+
+    /** Maximum number of outliers retained; older ones are discarded */
+    static final int MAX_OUTLIERS = 64;
+
+    private final int sampleInterval;
+    private final int stackDepth;
+    private final long holdThreshold;
+
+    private final ConcurrentHashMap<Site, Site> sites =
+        new ConcurrentHashMap<Site, Site>();
+
+    /** Most recent outliers, oldest first. Guarded by itself. */
+    private final LinkedList<Outlier> outliers = new LinkedList<Outlier>();
+
+    /**
+     * Creates a new profiler.
+     *
+     * @param sampleInterval the average number of acquires per sample;
+     *        one to sample every acquire
+     * @param stackDepth the maximum number of stack frames recorded
+     *        for each call site
+     * @param holdThreshold the hold time above which an outlier is
+     *        recorded along with the releasing thread's stack
+     * @param unit the time unit of the {@code holdThreshold} argument
+     * @throws IllegalArgumentException if {@code sampleInterval} or
+     *         {@code stackDepth} is less than one, or {@code
+     *         holdThreshold} is negative
+     * @throws NullPointerException if unit is null
+     */
+    public LockProfiler(int sampleInterval, int stackDepth,
+                        long holdThreshold, TimeUnit unit) {
+        if (sampleInterval < 1 || stackDepth < 1 || holdThreshold < 0)
+            throw new IllegalArgumentException();
+        this.sampleInterval = sampleInterval;
+        this.stackDepth = stackDepth;
+        this.holdThreshold = unit.toNanos(holdThreshold);
+    }
+
+    /**
+     * Statistics for one acquiring call site.
+     */
+    final class Site {
+        final StackTraceElement[] frames;
+        final int hash;
+        final AtomicLong samples = new AtomicLong();
+        final AtomicLong totalWait = new AtomicLong();
+        final AtomicLong maxWait = new AtomicLong();
+        final AtomicLong totalHold = new AtomicLong();
+        final AtomicLong maxHold = new AtomicLong();
+
+        Site(StackTraceElement[] frames) {
+            this.frames = frames;
+            this.hash = Arrays.hashCode(frames);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof Site &&
+                Arrays.equals(frames, ((Site)o).frames);
+        }
+
+        void recordWait(long nanos) {
+            samples.getAndIncrement();
+            totalWait.getAndAdd(nanos);
+            updateMax(maxWait, nanos);
+        }
+
+        /**
+         * Records a sampled hold, after the lock has been released.
+         */
+        void released(long holdNanos) {
+            totalHold.getAndAdd(holdNanos);
+            updateMax(maxHold, holdNanos);
+            if (holdNanos > holdThreshold)
+                addOutlier(new Outlier(this, holdNanos,
+                                       Thread.currentThread().getName(),
+                                       callerFrames()));
+        }
+    }
+
+    /**
+     * A sampled hold exceeding the threshold.
+     */
+    static final class Outlier {
+        final Site site;
+        final long holdNanos;
+        final String threadName;
+        final StackTraceElement[] releaseFrames;
+
+        Outlier(Site site, long holdNanos, String threadName,
+                StackTraceElement[] releaseFrames) {
+            this.site = site;
+            this.holdNanos = holdNanos;
+            this.threadName = threadName;
+            this.releaseFrames = releaseFrames;
+        }
+    }
+
+    /**
+     * Returns true if the current acquire should be sampled.
+     */
+    boolean sample() {
+        return sampleInterval == 1 ||
+            ThreadLocalRandom.current().nextInt(sampleInterval) == 0;
+    }
+
+    /**
+     * Returns the site for the current thread's call stack,
+     * omitting frames of the lock and this profiler.
+     */
+    Site site() {
+        Site s = new Site(callerFrames());
+        Site p = sites.putIfAbsent(s, s);
+        return (p == null) ? s : p;
+    }
+
+    static void updateMax(AtomicLong max, long v) {
+        long m;
+        while (v > (m = max.get()) && !max.compareAndSet(m, v))
+            ;
+    }
+
+    private void addOutlier(Outlier o) {
+        synchronized (outliers) {
+            outliers.addLast(o);
+            if (outliers.size() > MAX_OUTLIERS)
+                outliers.removeFirst();
+        }
+    }
+
+    private StackTraceElement[] callerFrames() {
+        StackTraceElement[] trace = new Throwable().getStackTrace();
+        int i = 0;
+        while (i < trace.length && isInternal(trace[i].getClassName()))
+            ++i;
+        int n = Math.min(stackDepth, trace.length - i);
+        return Arrays.copyOfRange(trace, i, i + n);
+    }
+
+    private static boolean isInternal(String className) {
+        return className.startsWith(LockProfiler.class.getName()) ||
+            className.startsWith(ReentrantLock.class.getName());
+    }
+
+    /**
+     * Discards all statistics and outliers recorded so far.
+     */
+    public void reset() {
+        sites.clear();
+        synchronized (outliers) {
+            outliers.clear();
+        }
+    }
+
+    /**
+     * Returns a report of the sampled call sites, ranked by total
+     * time spent waiting to acquire, followed by the sites ranked by
+     * total time holding, followed by the retained outliers, most
+     * recent first.  Times are in microseconds.
+     *
+     * @return the report
+     */
+    public String report() {
+        List<Site> ranked = new ArrayList<Site>(sites.values());
+        StringBuilder sb = new StringBuilder();
+        sb.append("Lock profile (1 in ").append(sampleInterval)
+            .append(" acquires sampled)\n");
+
+        Collections.sort(ranked, new Comparator<Site>() {
+            public int compare(Site a, Site b) {
+                return Long.compare(b.totalWait.get(), a.totalWait.get());
+            }});
+        sb.append("\nCall sites by total wait:\n");
+        for (Site s : ranked)
+            appendSite(sb, s);
+
+        Collections.sort(ranked, new Comparator<Site>() {
+            public int compare(Site a, Site b) {
+                return Long.compare(b.totalHold.get(), a.totalHold.get());
+            }});
+        sb.append("\nCall sites by total hold:\n");
+        for (Site s : ranked)
+            appendSite(sb, s);
+
+        List<Outlier> os;
+        synchronized (outliers) {
+            os = new ArrayList<Outlier>(outliers);
+        }
+        Collections.reverse(os);
+        sb.append("\nHolds over ")
+            .append(TimeUnit.NANOSECONDS.toMicros(holdThreshold))
+            .append("us:\n");
+        for (Outlier o : os) {
+            sb.append("  held ").append(TimeUnit.NANOSECONDS.toMicros(o.holdNanos))
+                .append("us by \"").append(o.threadName).append("\"\n")
+                .append("    acquired at:\n");
+            appendFrames(sb, o.site.frames);
+            sb.append("    released at:\n");
+            appendFrames(sb, o.releaseFrames);
+        }
+        return sb.toString();
+    }
+
+    private static void appendSite(StringBuilder sb, Site s) {
+        long n = s.samples.get();
+        if (n == 0)
+            return;
+        sb.append("  samples=").append(n)
+            .append(" wait(total/mean/max)=")
+            .append(TimeUnit.NANOSECONDS.toMicros(s.totalWait.get())).append('/')
+            .append(TimeUnit.NANOSECONDS.toMicros(s.totalWait.get() / n)).append('/')
+            .append(TimeUnit.NANOSECONDS.toMicros(s.maxWait.get()))
+            .append(" hold(total/mean/max)=")
+            .append(TimeUnit.NANOSECONDS.toMicros(s.totalHold.get())).append('/')
+            .append(TimeUnit.NANOSECONDS.toMicros(s.totalHold.get() / n)).append('/')
+            .append(TimeUnit.NANOSECONDS.toMicros(s.maxHold.get()))
+            .append('\n');
+        appendFrames(sb, s.frames);
+    }
+
+    private static void appendFrames(StringBuilder sb, StackTraceElement[] frames) {
+        for (StackTraceElement e : frames)
+            sb.append("\tat ").append(e).append('\n');
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A FIFO spin lock in which waiting threads form a linked queue, as
+ * described by Mellor-Crummey and Scott, each spinning on a field of
+ * its own queue node.  A release updates only the node of the next
+ * waiting thread, so unlike {@link TicketLock}, the cache traffic
+ * per release does not grow with the number of waiting threads.
+ *
+ * <p>A thread giving up waiting, upon interrupt or timeout, marks
+ * its node as abandoned and leaves it in the queue; a releasing
+ * thread passes the lock over abandoned nodes to the next thread
+ * still waiting.  If a waiting thread is descheduled, threads behind
+ * it wait until it runs again; {@link TimePublishedMCSLock} avoids
+ * this.
+ *
+ * <p>Waiting threads spin rather than block, and this lock is not
+ * reentrant and does not support conditions; see {@link
+ * #newCondition}.  The {@link #tryLock()} method acquires only if no
+ * thread is waiting, so never barges ahead of waiting threads.
+ */
+public class MCSLock extends AbstractSpinLock {
+
+    /** Node status values */
+    static final int WAITING   = 0;
+    static final int GRANTED   = 1;
+    static final int ABANDONED = 2;
+
+    /**
+     * Queue node.  The status is set from WAITING to GRANTED by the
+     * releasing thread, or to ABANDONED by the waiting thread, using
+     * CAS, so that exactly one of these happens.
+     */
+    static final class Node {
+        volatile Node next;
+        volatile int status;
+
+        boolean casStatus(int expect, int update) {
+            return statusUpdater.compareAndSet(this, expect, update);
+        }
+
+        private static final AtomicIntegerFieldUpdater<Node> statusUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(Node.class, "status");
+    }
+
+    /** The last node in the queue, or null if the lock is free */
+    private volatile Node tail;
+
+    /** The node of the owner, accessed only by the owner */
+    private Node holder;
+
+    private static final AtomicReferenceFieldUpdater<MCSLock, Node>
+        tailUpdater = AtomicReferenceFieldUpdater.newUpdater
+        (MCSLock.class, Node.class, "tail");
+
+    /**
+     * Creates a new {@code MCSLock}.
+     */
+    public MCSLock() {
+    }
+
+    final boolean acquire(boolean interruptible, boolean timed,
+                          long deadline) {
+        Node node = new Node();
+        Node pred = tailUpdater.getAndSet(this, node);
+        if (pred != null) {
+            pred.next = node;
+            for (int spins = 0; node.status != GRANTED; ) {
+                if (shouldAbandon(interruptible, timed, deadline) &&
+                    node.casStatus(WAITING, ABANDONED))
+                    return false;
+                spins = spin(spins);
+            }
+        }
+        holder = node;
+        owner = Thread.currentThread();
+        return true;
+    }
+
+    /**
+     * Acquires the lock only if no other thread holds or is waiting
+     * for it.
+     *
+     * @return {@code true} if the lock was acquired and
+     *         {@code false} otherwise
+     */
+    public boolean tryLock() {
+        Node node;
+        if (tail == null &&
+            tailUpdater.compareAndSet(this, null, node = new Node())) {
+            holder = node;
+            owner = Thread.currentThread();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Releases this lock, passing it to the next waiting thread, if
+     * any.
+     *
+     * @throws IllegalMonitorStateException if the current thread does not
+     *         hold this lock
+     */
+    public void unlock() {
+        releaseOwnership();
+        Node node = holder;
+        holder = null;
+        for (;;) {
+            Node next = node.next;
+            if (next == null) {
+                if (tailUpdater.compareAndSet(this, node, null))
+                    return;
+                // wait for successor to link
+                for (int spins = 0; (next = node.next) == null; )
+                    spins = spin(spins);
+            }
+            if (next.casStatus(WAITING, GRANTED))
+                return;
+            node = next; // abandoned; pass over it
+        }
+    }
+
+    /**
+     * Queries if this lock is held by any thread.  Abandoned nodes
+     * not yet passed over are reported as holding the lock.
+     *
+     * @return {@code true} if any thread holds this lock and
+     *         {@code false} otherwise
+     */
+    public boolean isLocked() {
+        return tail != null;
+    }
+}
@@ -0,0 +1,525 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A mutual exclusion construct in which threads wait for boolean
+ * {@linkplain Guard guards} to become true, rather than being
+ * explicitly signalled.  A thread occupies the monitor by {@link
+ * #enter entering} it, and waits for a guard by {@link #waitFor}, or
+ * enters only once a guard holds by {@link #enterWhen}.  Whenever a
+ * thread leaves the monitor, or releases it by waiting, the guards
+ * of waiting threads are evaluated by that thread, while it still
+ * occupies the monitor, and one thread waiting for a guard that
+ * holds is woken.  So no thread is woken only to find that its guard
+ * does not hold (unless another thread entered first and made it
+ * false), and no thread needs to know which others to signal.
+ *
+ * <p>A monitor is built on a {@link ReentrantLock}, with one {@link
+ * Condition} per guard, and has the same reentrancy and fairness
+ * properties.  Entering is reentrant, and a thread leaves as many
+ * times as it enters; guards are evaluated only upon the last leave.
+ * A guard is evaluated only while its monitor is occupied, so it may
+ * read state protected by the monitor without further
+ * synchronization, but it should not itself block or change that
+ * state.  If evaluating a guard throws an exception, all waiting
+ * threads are woken, to reevaluate their guards themselves, and the
+ * exception is rethrown.
+ *
+ * <p>Guards are evaluated in order of most recently used; if guards
+ * of several waiting threads hold, only one of those threads is
+ * woken, and when it leaves, the guards are evaluated again.  The
+ * cost of each leave is thus proportional to the number of distinct
+ * guards waited for, not the number of waiting threads.
+ *
+ * <p><b>Sample Usage.</b> Here is a bounded buffer, in which, unlike
+ * one using {@code signalAll}, no thread is woken unless it can
+ * proceed:
+ *
+ * <pre> {@code
+ * class BoundedBuffer {
+ *   final Monitor monitor = new Monitor();
+ *   final Monitor.Guard notFull = new Monitor.Guard(monitor) {
+ *     public boolean isSatisfied() { return count < items.length; }
+ *   };
+ *   final Monitor.Guard notEmpty = new Monitor.Guard(monitor) {
+ *     public boolean isSatisfied() { return count > 0; }
+ *   };
+ *   final Object[] items = new Object[100];
+ *   int putptr, takeptr, count;
+ *
+ *   public void put(Object x) throws InterruptedException {
+ *     monitor.enterWhen(notFull);
+ *     try {
+ *       items[putptr] = x;
+ *       if (++putptr == items.length) putptr = 0;
+ *       ++count;
+ *     } finally {
+ *       monitor.leave();
+ *     }
+ *   }
+ *
+ *   public Object take() throws InterruptedException {
+ *     monitor.enterWhen(notEmpty);
+ *     try {
+ *       Object x = items[takeptr];
+ *       if (++takeptr == items.length) takeptr = 0;
+ *       --count;
+ *       return x;
+ *     } finally {
+ *       monitor.leave();
+ *     }
+ *   }
+ * }}</pre>
+ */
+public class Monitor {
+
+    /**
+     * A boolean condition for which a thread may wait.  A guard is
+     * associated with a single monitor, which must be occupied when
+     * it is evaluated.
+     */
+    public abstract static class Guard {
+        final Monitor monitor;
+        final Condition condition;
+
+        /** Number of threads waiting for this guard. Guarded by lock */
+        int waiters;
+
+        /** Next active guard, if waited for. Guarded by lock */
+        Guard next;
+
+        /**
+         * Creates a guard for the given monitor.
+         *
+         * @param monitor the monitor
+         * @throws NullPointerException if the monitor is null
+         */
+        protected Guard(Monitor monitor) {
+            if (monitor == null)
+                throw new NullPointerException();
+            this.monitor = monitor;
+            this.condition = monitor.lock.newCondition();
+        }
+
+        /**
+         * Evaluates this guard.  Invoked only while the associated
+         * monitor is occupied, by the thread occupying it.
+         *
+         * @return {@code true} if the guard holds
+         */
+        public abstract boolean isSatisfied();
+    }
+
+    /** The lock underlying this monitor */
+    private final ReentrantLock lock;
+
+    /**
+     * Guards waited for by at least one thread, most recently waited
+     * for first. Guarded by lock.
+     */
+    private Guard activeGuards;
+
+    /**
+     * Creates a monitor with a nonfair ordering policy.
+     */
+    public Monitor() {
+        this(false);
+    }
+
+    /**
+     * Creates a monitor with the given ordering policy.
+     *
+     * @param fair {@code true} if this monitor should use a fair
+     *        ordering policy, as for {@link ReentrantLock}
+     */
+    public Monitor(boolean fair) {
+        lock = new ReentrantLock(fair);
+    }
+
+    /**
+     * Enters this monitor, blocking indefinitely.
+     */
+    public void enter() {
+        lock.lock();
+    }
+
+    /**
+     * Enters this monitor, blocking until entered or interrupted.
+     *
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void enterInterruptibly() throws InterruptedException {
+        lock.lockInterruptibly();
+    }
+
+    /**
+     * Enters this monitor if it is not occupied by another thread,
+     * without regard to the fairness setting.
+     *
+     * @return {@code true} if the monitor was entered
+     */
+    public boolean tryEnter() {
+        return lock.tryLock();
+    }
+
+    /**
+     * Enters this monitor when the guard holds, blocking until
+     * entered or interrupted.  If the current thread already
+     * occupies the monitor, this is equivalent to {@link #enter}
+     * followed by {@link #waitFor}.
+     *
+     * @param guard the guard
+     * @throws InterruptedException if the current thread is
+     *         interrupted, in which case it does not occupy the
+     *         monitor more times than before invocation
+     * @throws IllegalMonitorStateException if the guard is not
+     *         associated with this monitor
+     */
+    public void enterWhen(Guard guard) throws InterruptedException {
+        checkGuard(guard);
+        boolean reentrant = lock.isHeldByCurrentThread();
+        lock.lockInterruptibly();
+        boolean satisfied = false;
+        try {
+            if (!isSatisfied(guard))
+                await(guard, reentrant);
+            satisfied = true;
+        } finally {
+            if (!satisfied)
+                leave();
+        }
+    }
+
+    /**
+     * Enters this monitor when the guard holds, blocking
+     * indefinitely.  If the current thread already occupies the
+     * monitor, this is equivalent to {@link #enter} followed by
+     * {@link #waitForUninterruptibly}.
+     *
+     * @param guard the guard
+     * @throws IllegalMonitorStateException if the guard is not
+     *         associated with this monitor
+     */
+    public void enterWhenUninterruptibly(Guard guard) {
+        checkGuard(guard);
+        boolean reentrant = lock.isHeldByCurrentThread();
+        lock.lock();
+        boolean satisfied = false;
+        try {
+            if (!isSatisfied(guard))
+                awaitUninterruptibly(guard, reentrant);
+            satisfied = true;
+        } finally {
+            if (!satisfied)
+                leave();
+        }
+    }
+
+    /**
+     * Waits for the guard to hold, blocking until it does or the
+     * current thread is interrupted.  Must be invoked by a thread
+     * occupying this monitor, which it releases while waiting.
+     *
+     * @param guard the guard
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws IllegalMonitorStateException if the current thread does
+     *         not occupy this monitor, or the guard is not associated
+     *         with it
+     */
+    public void waitFor(Guard guard) throws InterruptedException {
+        checkWait(guard);
+        if (!isSatisfied(guard))
+            await(guard, true);
+    }
+
+    /**
+     * Waits for the guard to hold, blocking indefinitely.  Must be
+     * invoked by a thread occupying this monitor, which it releases
+     * while waiting.
+     *
+     * @param guard the guard
+     * @throws IllegalMonitorStateException if the current thread does
+     *         not occupy this monitor, or the guard is not associated
+     *         with it
+     */
+    public void waitForUninterruptibly(Guard guard) {
+        checkWait(guard);
+        if (!isSatisfied(guard))
+            awaitUninterruptibly(guard, true);
+    }
+
+    /**
+     * Waits for the guard to hold, blocking until it does, the
+     * given waiting time elapses, or the current thread is
+     * interrupted.  Must be invoked by a thread occupying this
+     * monitor, which it releases while waiting.
+     *
+     * @param guard the guard
+     * @param time the maximum time to wait
+     * @param unit the time unit of the {@code time} argument
+     * @return {@code true} if the guard holds, else {@code false}
+     *         if the waiting time elapsed first
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws IllegalMonitorStateException if the current thread does
+     *         not occupy this monitor, or the guard is not associated
+     *         with it
+     */
+    public boolean waitFor(Guard guard, long time, TimeUnit unit)
+        throws InterruptedException {
+        long nanos = unit.toNanos(time);
+        checkWait(guard);
+        if (isSatisfied(guard))
+            return true;
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        if (nanos <= 0L)
+            return false;
+        signalNextWaiter();
+        beginWaitingFor(guard);
+        try {
+            do {
+                if (nanos <= 0L)
+                    return false;
+                nanos = guard.condition.awaitNanos(nanos);
+            } while (!isSatisfied(guard));
+            return true;
+        } finally {
+            endWaitingFor(guard);
+        }
+    }
+
+    /**
+     * Leaves this monitor.  If the current thread thereby no longer
+     * occupies it, and some thread is waiting for a guard that now
+     * holds, one such thread is woken.
+     *
+     * @throws IllegalMonitorStateException if the current thread does
+     *         not occupy this monitor
+     */
+    public void leave() {
+        try {
+            if (lock.getHoldCount() == 1)
+                signalNextWaiter();
+        } finally {
+            lock.unlock(); // throws IMSE if not held
+        }
+    }
+
+    /**
+     * Waits, after signalling the next waiter if the current thread
+     * occupied the monitor before waiting, until the guard holds.
+     */
+    private void await(Guard guard, boolean signalFirst)
+        throws InterruptedException {
+        if (signalFirst)
+            signalNextWaiter();
+        beginWaitingFor(guard);
+        try {
+            do {
+                guard.condition.await();
+            } while (!isSatisfied(guard));
+        } finally {
+            endWaitingFor(guard);
+        }
+    }
+
+    /**
+     * Uninterruptible version of await.
+     */
+    private void awaitUninterruptibly(Guard guard, boolean signalFirst) {
+        if (signalFirst)
+            signalNextWaiter();
+        beginWaitingFor(guard);
+        try {
+            do {
+                guard.condition.awaitUninterruptibly();
+            } while (!isSatisfied(guard));
+        } finally {
+            endWaitingFor(guard);
+        }
+    }
+
+    /**
+     * Wakes one thread waiting for a guard that holds, if there is
+     * one.  Invoked while occupying the monitor, just before releasing
+     * it.  As a condition signal only moves the thread to the lock
+     * queue, the thread is not actually woken until the monitor is
+     * released.  Each woken thread in turn signals another upon
+     * leaving, so a single signal per release suffices; a woken
+     * thread finding its guard false (because another thread entered
+     * first) waits again without signalling, leaving it to that
+     * other thread.
+     */
+    private void signalNextWaiter() {
+        for (Guard g = activeGuards; g != null; g = g.next) {
+            if (isSatisfied(g)) {
+                g.condition.signal();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Wakes all waiting threads.  Used only when a guard throws, in
+     * which case it is unknown which threads can proceed.
+     */
+    private void signalAllWaiters() {
+        for (Guard g = activeGuards; g != null; g = g.next)
+            g.condition.signalAll();
+    }
+
+    /**
+     * Evaluates the guard, waking all waiting threads if it throws.
+     */
+    private boolean isSatisfied(Guard guard) {
+        try {
+            return guard.isSatisfied();
+        } catch (Throwable ex) {
+            signalAllWaiters();
+            throw ex;
+        }
+    }
+
+    /**
+     * Records that the current thread is about to wait for the
+     * guard, making the guard active if it was not.
+     */
+    private void beginWaitingFor(Guard guard) {
+        if (guard.waiters++ == 0) {
+            guard.next = activeGuards;
+            activeGuards = guard;
+        }
+    }
+
+    /**
+     * Records that the current thread no longer waits for the guard,
+     * making it inactive if no other thread does.
+     */
+    private void endWaitingFor(Guard guard) {
+        if (--guard.waiters == 0) {
+            for (Guard p = activeGuards, pred = null; p != null;
+                 pred = p, p = p.next) {
+                if (p == guard) {
+                    if (pred == null)
+                        activeGuards = p.next;
+                    else
+                        pred.next = p.next;
+                    p.next = null;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Throws IllegalMonitorStateException if the guard is not
+     * associated with this monitor.
+     */
+    private void checkGuard(Guard guard) {
+        if (guard.monitor != this)
+            throw new IllegalMonitorStateException();
+    }
+
+    /**
+     * Throws IllegalMonitorStateException if the guard is not
+     * associated with this monitor or the monitor is not occupied by
+     * the current thread.
+     */
+    private void checkWait(Guard guard) {
+        if (guard.monitor != this || !lock.isHeldByCurrentThread())
+            throw new IllegalMonitorStateException();
+    }
+
+    // Instrumentation and status
+
+    /**
+     * Returns {@code true} if this monitor uses a fair ordering policy.
+     *
+     * @return {@code true} if this monitor uses a fair ordering policy
+     */
+    public boolean isFair() {
+        return lock.isFair();
+    }
+
+    /**
+     * Queries if this monitor is occupied by any thread. This method
+     * is designed for use in monitoring of the system state, not for
+     * synchronization control.
+     *
+     * @return {@code true} if any thread occupies this monitor
+     */
+    public boolean isOccupied() {
+        return lock.isLocked();
+    }
+
+    /**
+     * Queries if this monitor is occupied by the current thread.
+     *
+     * @return {@code true} if the current thread occupies this monitor
+     */
+    public boolean isOccupiedByCurrentThread() {
+        return lock.isHeldByCurrentThread();
+    }
+
+    /**
+     * Queries the number of times the current thread has entered this
+     * monitor without leaving.
+     *
+     * @return the number of times the current thread has entered,
+     *         or zero if it does not occupy this monitor
+     */
+    public int getOccupiedDepth() {
+        return lock.getHoldCount();
+    }
+
+    /**
+     * Returns an estimate of the number of threads waiting to enter
+     * this monitor, not including those waiting for guards.  This
+     * method is designed for use in monitoring of the system state,
+     * not for synchronization control.
+     *
+     * @return the estimated number of threads waiting to enter
+     */
+    public int getQueueLength() {
+        return lock.getQueueLength();
+    }
+
+    /**
+     * Returns an estimate of the number of threads waiting for the
+     * given guard.  Must be invoked by a thread occupying this
+     * monitor.  This method is designed for use in monitoring of the
+     * system state, not for synchronization control.
+     *
+     * @param guard the guard
+     * @return the estimated number of waiting threads
+     * @throws IllegalMonitorStateException if the current thread does
+     *         not occupy this monitor, or the guard is not associated
+     *         with it
+     */
+    public int getWaitQueueLength(Guard guard) {
+        checkWait(guard);
+        return guard.waiters;
+    }
+
+    /**
+     * Returns a string identifying this monitor, as well as its
+     * state.  The state, in brackets, includes either the String
+     * {@code "Unoccupied"} or the String {@code "Occupied by thread"}
+     * followed by the {@linkplain Thread#getName name} of the
+     * occupying thread.
+     *
+     * @return a string identifying this monitor, as well as its state
+     */
+    public String toString() {
+        Thread o = lock.getOwner();
+        return super.toString() + ((o == null) ?
+                                   "[Unoccupied]" :
+                                   "[Occupied by thread " + o.getName() + "]");
+    }
+}
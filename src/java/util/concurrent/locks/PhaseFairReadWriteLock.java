@@ -0,0 +1,740 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ReadWriteLock} in which read and write phases alternate,
+ * using the phase-fair policy described by Brandenburg and Anderson.
+ * A reader arriving while no writer is present acquires the read
+ * lock at once, joining the current read phase.  A reader arriving
+ * while a writer holds the write lock, or is waiting for readers to
+ * release it, waits only until that writer releases, at which point
+ * all readers that arrived during its write phase acquire together,
+ * even if other writers are waiting.  A writer waits for writers
+ * ahead of it, in arrival order, and then only for the readers of
+ * the current read phase.  So a reader waits for at most one write
+ * phase, and a writer for at most one read phase beyond the writers
+ * queued ahead of it, neither starving under a continuous stream of
+ * the other.
+ *
+ * <p>This lock is built on {@link AbstractQueuedLongSynchronizer}.
+ * Its state holds the write hold count, the number of readers of the
+ * current read phase, the number of readers waiting for the current
+ * write phase to end, and a count of write phases.  Writers wait in
+ * its queue in exclusive mode, while waiting readers wait in one of
+ * two queues, one for each parity of that count, all readers of
+ * which are released at once when the write phase ends.
+ *
+ * <p>The write lock is reentrant, and may be downgraded by acquiring
+ * the read lock while holding it.  The read lock is not reentrant: a
+ * thread holding the read lock that attempts to reacquire it while a
+ * writer is waiting will deadlock, as will a thread holding the read
+ * lock that attempts to acquire the write lock.  The write lock
+ * supports conditions, which behave as do those of {@link
+ * ReentrantReadWriteLock}, except that a thread must not wait while
+ * also holding the read lock.  The read lock does not support
+ * conditions.
+ */
+public class PhaseFairReadWriteLock implements ReadWriteLock {
+
+    /** Inner class providing readlock */
+    private final PhaseFairReadWriteLock.ReadLock readerLock;
+    /** Inner class providing writelock */
+    private final PhaseFairReadWriteLock.WriteLock writerLock;
+    /** Performs all synchronization mechanics */
+    final Sync sync;
+
+    /**
+     * Creates a new {@code PhaseFairReadWriteLock}.
+     */
+    public PhaseFairReadWriteLock() {
+        sync = new Sync();
+        readerLock = new ReadLock(sync);
+        writerLock = new WriteLock(sync);
+    }
+
+    public PhaseFairReadWriteLock.WriteLock writeLock() { return writerLock; }
+    public PhaseFairReadWriteLock.ReadLock  readLock()  { return readerLock; }
+
+    /**
+     * Synchronization implementation for PhaseFairReadWriteLock.
+     * Writers acquire in exclusive mode; readers never queue here,
+     * but in the Gate for the parity of the write phase they wait
+     * for.
+     */
+    static final class Sync extends AbstractQueuedLongSynchronizer {
+        private static final long serialVersionUID = -3290713469829528617L;
+
+        /*
+         * Lock state is divided into five fields.  From the low end:
+         * the write hold count; a bit set while the writer holds the
+         * write lock, rather than waiting for readers to release; the
+         * number of readers of the current read phase; the number of
+         * readers waiting for the current write phase to end; and the
+         * number of the write phase, modulo 2^13.  A writer is
+         * present while the hold count is nonzero.  Upon the final
+         * write release, the waiting readers, if any, are added to
+         * the readers in the same CAS that clears the writer and
+         * advances the phase, so that a writer claiming the lock next
+         * must wait for them, and each reader need only see the phase
+         * change to proceed.  A writer abandoning its claim does the
+         * same even while readers of the current read phase remain,
+         * as the waiting readers may share the lock with them.
+         *
+         * Readers admitted by one phase change may not yet have seen
+         * it when the next occurs, as abandoning a claim does not
+         * wait for them.  So a reader compares the phase with that
+         * it arrived in, rather than relying on the parity alone,
+         * which selects only the Gate it waits in.  An admitted
+         * reader still counts as a reader, so no writer can acquire
+         * before it resumes, and it could miss its phase change only
+         * if 2^13 claims in succession were abandoned meanwhile.
+         */
+
+        static final int  READER_SHIFT   = 17;
+        static final int  WAITER_SHIFT   = 34;
+        static final int  PHASE_SHIFT    = 51;
+        static final long EXCLUSIVE_MASK = (1L << 16) - 1;
+        static final long WRITING        = 1L << 16;
+        static final long READER_UNIT    = 1L << READER_SHIFT;
+        static final long WAITER_UNIT    = 1L << WAITER_SHIFT;
+        static final long PHASE_UNIT     = 1L << PHASE_SHIFT;
+        static final long READER_MASK    = (1L << 17) - 1;
+        static final long WAITER_MASK    = READER_MASK << WAITER_SHIFT;
+        static final int  MAX_WRITES     = (int)EXCLUSIVE_MASK;
+        static final int  MAX_READS      = (1 << 16) - 1;
+
+        /** Returns the number of write holds represented in count */
+        static int exclusiveCount(long c) { return (int)(c & EXCLUSIVE_MASK); }
+        /** Returns the number of readers represented in count */
+        static int readerCount(long c) {
+            return (int)((c >>> READER_SHIFT) & READER_MASK);
+        }
+        /** Returns the number of waiting readers represented in count */
+        static int waiterCount(long c) {
+            return (int)((c >>> WAITER_SHIFT) & READER_MASK);
+        }
+        /** Returns the write phase represented in count */
+        static int phaseOf(long c) { return (int)(c >>> PHASE_SHIFT); }
+
+        /** The queues of waiting readers, indexed by phase parity */
+        final Gate[] gates = { new Gate(this), new Gate(this) };
+
+        /*
+         * Note that tryRelease and tryAcquire can be called by
+         * Conditions, with the whole state as argument, of which only
+         * the write hold count is used.
+         */
+
+        /**
+         * Acquires the lock for the current writer if no writer is
+         * present, no readers hold it, and none is queued ahead.  If
+         * readers hold it, claims it instead, after which readers
+         * arriving wait, and then acquires it once the readers of the
+         * current read phase have released.  A writer that has
+         * claimed the lock but must wait for readers remains its
+         * owner, and is woken by the last of them to release.  So
+         * that this wakeup, which goes to the first queued thread,
+         * reaches the claimant, a writer claims only once it is
+         * itself the first queued thread, never before enqueuing.
+         */
+        protected final boolean tryAcquire(long acquires) {
+            Thread current = Thread.currentThread();
+            int a = exclusiveCount(acquires);
+            for (;;) {
+                long c = getState();
+                int w = exclusiveCount(c);
+                if (w == 0) {
+                    boolean free = readerCount(c) == 0;
+                    if (free ? hasQueuedPredecessors() :
+                        getFirstQueuedThread() != current)
+                        return false;
+                    long nextc = c + a;
+                    if (free)
+                        nextc |= WRITING;
+                    if (compareAndSetState(c, nextc)) {
+                        setExclusiveOwnerThread(current);
+                        return free;
+                    }
+                }
+                else if (current != getExclusiveOwnerThread())
+                    return false;
+                else if ((c & WRITING) != 0) {
+                    // Reentrant acquire
+                    if (w + a > MAX_WRITES)
+                        throw new Error("Maximum lock count exceeded");
+                    if (compareAndSetState(c, c + a))
+                        return true;
+                }
+                else if (readerCount(c) != 0)
+                    return false;             // still draining
+                else if (compareAndSetState(c, c | WRITING))
+                    return true;
+            }
+        }
+
+        /**
+         * Releases write holds.  Upon final release, which may also
+         * abandon a claim, admits waiting readers and opens their
+         * gate.  This never waits, even if readers of the current
+         * read phase remain, as the admitted readers join them.
+         */
+        protected final boolean tryRelease(long releases) {
+            if (getExclusiveOwnerThread() != Thread.currentThread())
+                throw new IllegalMonitorStateException();
+            int r = exclusiveCount(releases);
+            int w = exclusiveCount(getState()) - r;
+            if (w < 0)
+                throw new IllegalMonitorStateException();
+            if (w == 0)
+                setExclusiveOwnerThread(null);
+            for (;;) {
+                long c = getState();
+                if (w != 0) {
+                    if (compareAndSetState(c, c - r))
+                        return false;
+                }
+                else if (waiterCount(c) == 0) {
+                    if (compareAndSetState(c, c & ~(EXCLUSIVE_MASK | WRITING)))
+                        return true;
+                }
+                else {
+                    long n = waiterCount(c);
+                    long nextc = (c & ~(EXCLUSIVE_MASK | WRITING | WAITER_MASK)) +
+                        (n << READER_SHIFT) + PHASE_UNIT;
+                    if (compareAndSetState(c, nextc)) {
+                        gates[phaseOf(c) & 1].releaseShared(1);
+                        return true;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Releases a read hold, waking a writer waiting for the
+         * current read phase to end if this was its last reader.
+         */
+        protected final boolean tryReleaseShared(long unused) {
+            for (;;) {
+                long c = getState();
+                if (readerCount(c) == 0)
+                    throw new IllegalMonitorStateException(
+                        "attempt to unlock read lock, not locked by current thread");
+                long nextc = c - READER_UNIT;
+                if (compareAndSetState(c, nextc))
+                    return (readerCount(nextc) == 0 &&
+                            exclusiveCount(nextc) != 0 &&
+                            (nextc & WRITING) == 0);
+            }
+        }
+
+        protected final boolean isHeldExclusively() {
+            return getExclusiveOwnerThread() == Thread.currentThread() &&
+                (getState() & WRITING) != 0;
+        }
+
+        /**
+         * Records the arrival of a reader, which acquires at once if
+         * no writer is present, or if the current thread is the
+         * writer.
+         *
+         * @return -1 if acquired, else the write phase that the
+         *         reader must wait for
+         */
+        final int arrive() {
+            Thread current = Thread.currentThread();
+            for (;;) {
+                long c = getState();
+                if (exclusiveCount(c) == 0 ||
+                    getExclusiveOwnerThread() == current) {
+                    if (readerCount(c) >= MAX_READS)
+                        throw new Error("Maximum lock count exceeded");
+                    if (compareAndSetState(c, c + READER_UNIT))
+                        return -1;
+                }
+                else {
+                    if (waiterCount(c) >= MAX_READS)
+                        throw new Error("Maximum lock count exceeded");
+                    if (compareAndSetState(c, c + WAITER_UNIT))
+                        return phaseOf(c);
+                }
+            }
+        }
+
+        /**
+         * Withdraws a reader that stopped waiting for the given write
+         * phase, unless that phase has already ended.
+         *
+         * @return true if the phase has ended, in which case the
+         *         reader holds the read lock
+         */
+        final boolean depart(int phase) {
+            for (;;) {
+                long c = getState();
+                if (phaseOf(c) != phase)
+                    return true;
+                if (compareAndSetState(c, c - WAITER_UNIT))
+                    return false;
+            }
+        }
+
+        /**
+         * Performs tryLock for read, acquiring only if no other
+         * writer is present.
+         */
+        final boolean tryReadLock() {
+            Thread current = Thread.currentThread();
+            for (;;) {
+                long c = getState();
+                if (exclusiveCount(c) != 0 &&
+                    getExclusiveOwnerThread() != current)
+                    return false;
+                if (readerCount(c) >= MAX_READS)
+                    throw new Error("Maximum lock count exceeded");
+                if (compareAndSetState(c, c + READER_UNIT))
+                    return true;
+            }
+        }
+
+        /**
+         * Performs tryLock for write, barging ahead of queued writers
+         * but neither claiming the lock nor waiting for readers.
+         */
+        final boolean tryWriteLock() {
+            Thread current = Thread.currentThread();
+            for (;;) {
+                long c = getState();
+                int w = exclusiveCount(c);
+                if (w != 0) {
+                    if (current != getExclusiveOwnerThread() ||
+                        (c & WRITING) == 0)
+                        return false;
+                    if (w == MAX_WRITES)
+                        throw new Error("Maximum lock count exceeded");
+                    if (compareAndSetState(c, c + 1))
+                        return true;
+                }
+                else if (readerCount(c) != 0)
+                    return false;
+                else if (compareAndSetState(c, c + 1 + WRITING)) {
+                    setExclusiveOwnerThread(current);
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Called after a timed or interruptible write acquire fails,
+         * to abandon any claim made by the current thread while it
+         * waited, waking the next writer and the readers that
+         * arrived meanwhile.
+         */
+        final void abandonClaim() {
+            long c = getState();
+            if (exclusiveCount(c) != 0 && (c & WRITING) == 0 &&
+                getExclusiveOwnerThread() == Thread.currentThread())
+                release(c);
+        }
+
+        // Methods relayed to outer class
+
+        final ConditionObject newCondition() {
+            return new ConditionObject();
+        }
+
+        final Thread getOwner() {
+            // Must read state before owner to ensure memory consistency
+            return (((getState() & WRITING) == 0) ?
+                    null :
+                    getExclusiveOwnerThread());
+        }
+
+        final int getReadLockCount() {
+            return readerCount(getState());
+        }
+
+        final boolean isWriteLocked() {
+            return (getState() & WRITING) != 0;
+        }
+
+        final int getWriteHoldCount() {
+            return isHeldExclusively() ? exclusiveCount(getState()) : 0;
+        }
+
+        final long getCount() { return getState(); }
+    }
+
+    /**
+     * The queue of readers waiting for write phases of one parity to
+     * end, each reader acquiring once the phase passed as its
+     * argument has ended.
+     */
+    static final class Gate extends AbstractQueuedLongSynchronizer {
+        private static final long serialVersionUID = 5817392054863162430L;
+        final Sync sync;
+
+        Gate(Sync sync) {
+            this.sync = sync;
+            enableBulkSharedRelease();
+        }
+
+        protected final long tryAcquireShared(long phase) {
+            return (Sync.phaseOf(sync.getCount()) != phase) ? 1L : -1L;
+        }
+
+        protected final boolean tryReleaseShared(long unused) {
+            return true;
+        }
+    }
+
+    /**
+     * The lock returned by method {@link PhaseFairReadWriteLock#readLock}.
+     */
+    public static final class ReadLock implements Lock {
+        private final Sync sync;
+
+        ReadLock(Sync sync) {
+            this.sync = sync;
+        }
+
+        /**
+         * Acquires the read lock.
+         *
+         * <p>Acquires the read lock if no writer holds or is waiting
+         * for the write lock, and returns immediately.  Otherwise the
+         * current thread becomes disabled for thread scheduling
+         * purposes and lies dormant until that writer releases the
+         * write lock.
+         */
+        public void lock() {
+            int phase = sync.arrive();
+            if (phase >= 0)
+                sync.gates[phase & 1].acquireShared(phase);
+        }
+
+        public void lockInterruptibly() throws InterruptedException {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            int phase = sync.arrive();
+            if (phase >= 0) {
+                try {
+                    sync.gates[phase & 1].acquireSharedInterruptibly(phase);
+                } catch (InterruptedException ie) {
+                    if (sync.depart(phase))
+                        sync.releaseShared(1);
+                    throw ie;
+                }
+            }
+        }
+
+        /**
+         * Acquires the read lock only if no other thread holds or is
+         * waiting for the write lock at the time of invocation.
+         *
+         * @return {@code true} if the read lock was acquired
+         */
+        public boolean tryLock() {
+            return sync.tryReadLock();
+        }
+
+        /**
+         * Acquires the read lock if it becomes available within the
+         * given waiting time and the current thread has not been
+         * {@linkplain Thread#interrupt interrupted}.  If the write
+         * phase the current thread was waiting for ends just as the
+         * waiting time elapses, the read lock is acquired and this
+         * method returns {@code true}.
+         *
+         * @param timeout the time to wait for the read lock
+         * @param unit the time unit of the timeout argument
+         * @return {@code true} if the read lock was acquired
+         * @throws InterruptedException if the current thread is interrupted
+         * @throws NullPointerException if the time unit is null
+         */
+        public boolean tryLock(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            long nanos = unit.toNanos(timeout);
+            int phase = sync.arrive();
+            if (phase < 0)
+                return true;
+            try {
+                if (sync.gates[phase & 1].tryAcquireSharedNanos(phase, nanos))
+                    return true;
+            } catch (InterruptedException ie) {
+                if (sync.depart(phase))
+                    sync.releaseShared(1);
+                throw ie;
+            }
+            return sync.depart(phase);
+        }
+
+        /**
+         * Attempts to release this lock.  If the number of readers is
+         * now zero and a writer is waiting, the lock is made
+         * available for write lock attempts.
+         *
+         * @throws IllegalMonitorStateException if no thread holds
+         *         the read lock
+         */
+        public void unlock() {
+            sync.releaseShared(1);
+        }
+
+        /**
+         * Throws {@code UnsupportedOperationException} because
+         * {@code ReadLocks} do not support conditions.
+         *
+         * @throws UnsupportedOperationException always
+         */
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+
+        public String toString() {
+            return super.toString() +
+                "[Read locks = " + sync.getReadLockCount() + "]";
+        }
+    }
+
+    /**
+     * The lock returned by method {@link PhaseFairReadWriteLock#writeLock}.
+     */
+    public static final class WriteLock implements Lock {
+        private final Sync sync;
+
+        WriteLock(Sync sync) {
+            this.sync = sync;
+        }
+
+        /**
+         * Acquires the write lock.
+         *
+         * <p>Once writers that arrived earlier have released the
+         * write lock, the current thread claims it, so that readers
+         * arriving later wait, and then waits for current readers to
+         * release.  If the current thread already holds the write
+         * lock, the hold count is incremented and the method returns
+         * immediately.
+         */
+        public void lock() {
+            sync.acquire(1);
+        }
+
+        public void lockInterruptibly() throws InterruptedException {
+            try {
+                sync.acquireInterruptibly(1);
+            } catch (InterruptedException ie) {
+                sync.abandonClaim();
+                throw ie;
+            }
+        }
+
+        /**
+         * Acquires the write lock only if neither the read nor write
+         * lock is held by another thread, and no other thread has
+         * claimed it, at the time of invocation.  Like the {@code
+         * tryLock} of {@link ReentrantReadWriteLock.WriteLock}, this
+         * barges ahead of waiting writers.
+         *
+         * @return {@code true} if the lock was free and was acquired
+         *         by the current thread, or the write lock was already
+         *         held by the current thread
+         */
+        public boolean tryLock() {
+            return sync.tryWriteLock();
+        }
+
+        /**
+         * Acquires the write lock if it becomes available within the
+         * given waiting time and the current thread has not been
+         * {@linkplain Thread#interrupt interrupted}.
+         *
+         * @param timeout the time to wait for the write lock
+         * @param unit the time unit of the timeout argument
+         * @return {@code true} if the lock was free and was acquired
+         *         by the current thread, or the write lock was already
+         *         held by the current thread; and {@code false} if the
+         *         waiting time elapsed before the lock could be acquired
+         * @throws InterruptedException if the current thread is interrupted
+         * @throws NullPointerException if the time unit is null
+         */
+        public boolean tryLock(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            boolean acquired = false;
+            try {
+                acquired = sync.tryAcquireNanos(1, unit.toNanos(timeout));
+            } finally {
+                if (!acquired)
+                    sync.abandonClaim();
+            }
+            return acquired;
+        }
+
+        /**
+         * Attempts to release this lock.  Upon the final release,
+         * readers that arrived while the current thread held or
+         * waited for the lock acquire the read lock.
+         *
+         * @throws IllegalMonitorStateException if the current thread
+         *         does not hold this lock
+         */
+        public void unlock() {
+            sync.release(1);
+        }
+
+        /**
+         * Returns a {@link Condition} instance for use with this
+         * lock, behaving as do those of the write lock of {@link
+         * ReentrantReadWriteLock}.  A thread returning from waiting
+         * reacquires the write lock as a newly arriving writer.
+         *
+         * @return the Condition object
+         */
+        public Condition newCondition() {
+            return sync.newCondition();
+        }
+
+        public String toString() {
+            Thread o = sync.getOwner();
+            return super.toString() + ((o == null) ?
+                                       "[Unlocked]" :
+                                       "[Locked by thread " + o.getName() + "]");
+        }
+
+        /**
+         * Queries if this write lock is held by the current thread.
+         *
+         * @return {@code true} if the current thread holds this lock and
+         *         {@code false} otherwise
+         */
+        public boolean isHeldByCurrentThread() {
+            return sync.isHeldExclusively();
+        }
+
+        /**
+         * Queries the number of holds on this write lock by the
+         * current thread.
+         *
+         * @return the number of holds on this lock by the current thread,
+         *         or zero if this lock is not held by the current thread
+         */
+        public int getHoldCount() {
+            return sync.getWriteHoldCount();
+        }
+    }
+
+    // Instrumentation and status
+
+    /**
+     * Returns the thread that currently owns the write lock, or
+     * {@code null} if not owned, including while the owner is
+     * waiting for readers to release.  This method is designed to
+     * facilitate construction of subclasses that provide more
+     * extensive lock monitoring facilities.
+     *
+     * @return the owner, or {@code null} if not owned
+     */
+    protected Thread getOwner() {
+        return sync.getOwner();
+    }
+
+    /**
+     * Queries the number of read locks held for this lock, including
+     * those of readers that have been admitted at the end of a write
+     * phase but have not yet resumed.  This method is designed for
+     * use in monitoring system state, not for synchronization
+     * control.
+     *
+     * @return the number of read locks held
+     */
+    public int getReadLockCount() {
+        return sync.getReadLockCount();
+    }
+
+    /**
+     * Queries if the write lock is held by any thread. This method is
+     * designed for use in monitoring system state, not for
+     * synchronization control.
+     *
+     * @return {@code true} if any thread holds the write lock and
+     *         {@code false} otherwise
+     */
+    public boolean isWriteLocked() {
+        return sync.isWriteLocked();
+    }
+
+    /**
+     * Queries if the write lock is held by the current thread.
+     *
+     * @return {@code true} if the current thread holds the write lock and
+     *         {@code false} otherwise
+     */
+    public boolean isWriteLockedByCurrentThread() {
+        return sync.isHeldExclusively();
+    }
+
+    /**
+     * Queries the number of reentrant write holds on this lock by the
+     * current thread.
+     *
+     * @return the number of holds on the write lock by the current thread,
+     *         or zero if the write lock is not held by the current thread
+     */
+    public int getWriteHoldCount() {
+        return sync.getWriteHoldCount();
+    }
+
+    /**
+     * Queries whether any threads are waiting to acquire the read or
+     * write lock.  This method is designed primarily for use in
+     * monitoring of the system state.
+     *
+     * @return {@code true} if there may be other threads waiting to
+     *         acquire the lock
+     */
+    public final boolean hasQueuedThreads() {
+        return sync.hasQueuedThreads() ||
+            sync.gates[0].hasQueuedThreads() ||
+            sync.gates[1].hasQueuedThreads();
+    }
+
+    /**
+     * Returns an estimate of the number of threads waiting to acquire
+     * either the read or write lock.  This method is designed for use
+     * in monitoring of the system state, not for synchronization
+     * control.
+     *
+     * @return the estimated number of threads waiting for this lock
+     */
+    public final int getQueueLength() {
+        return sync.getQueueLength() +
+            sync.gates[0].getQueueLength() +
+            sync.gates[1].getQueueLength();
+    }
+
+    /**
+     * Returns a string identifying this lock, as well as its lock state.
+     * The state, in brackets, includes the String {@code "Write locks ="}
+     * followed by the number of reentrantly held write locks, the
+     * String {@code "Read locks ="} followed by the number of held
+     * read locks, and the String {@code "Waiting readers ="} followed
+     * by the number of readers waiting for the current write phase
+     * to end.
+     *
+     * @return a string identifying this lock, as well as its lock state
+     */
+    public String toString() {
+        long c = sync.getCount();
+        int w = ((c & Sync.WRITING) == 0) ? 0 : Sync.exclusiveCount(c);
+        return super.toString() +
+            "[Write locks = " + w + ", Read locks = " + Sync.readerCount(c) +
+            ", Waiting readers = " + Sync.waiterCount(c) + "]";
+    }
+}
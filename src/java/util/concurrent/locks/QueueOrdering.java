@@ -0,0 +1,85 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+/**
+ * The order in which threads waiting to acquire a synchronizer in
+ * exclusive mode are granted it.  An ordering is installed by
+ * synchronizer subclasses using {@link
+ * AbstractQueuedSynchronizer#setQueueOrdering} or {@link
+ * AbstractQueuedLongSynchronizer#setQueueOrdering}, and is applied
+ * upon each exclusive release, which chooses the waiting thread that
+ * comes first in the ordering, and allows only that thread to
+ * acquire next, whatever its position in the wait queue.  Ties are
+ * broken in arrival order.  Threads waiting in shared mode, and
+ * threads that acquire without queuing at all (barging), are not
+ * subject to the ordering.
+ *
+ * <p>Except for {@link #FIFO}, orderings may cause threads to wait
+ * indefinitely while others keep arriving, and each release
+ * traverses the wait queue, so they are best suited to
+ * synchronizers with modest numbers of waiting threads.
+ */
+public enum QueueOrdering {
+    /**
+     * First-in-first-out: the longest-waiting thread is chosen. This
+     * is the ordering of synchronizers for which none is set, and
+     * does not require traversal.
+     */
+    FIFO {
+        boolean precedes(int pa, long da, long sa, int pb, long db, long sb) {
+            return sa - sb < 0L;
+        }
+    },
+    /**
+     * Last-in-first-out: the most recently arrived thread is chosen.
+     * This favors throughput, as that thread has usually blocked
+     * most recently and so retains more of its cached state, at the
+     * expense of wait times of earlier arrivals.
+     */
+    LIFO {
+        boolean precedes(int pa, long da, long sa, int pb, long db, long sb) {
+            return sa - sb > 0L;
+        }
+    },
+    /**
+     * Strict priority: the thread with the highest acquire priority
+     * is chosen.  The acquire priority is that given to {@link
+     * AbstractQueuedSynchronizer#acquireWithPriority}, or otherwise
+     * the {@linkplain Thread#getPriority priority} of the acquiring
+     * thread.
+     */
+    PRIORITY {
+        boolean precedes(int pa, long da, long sa, int pb, long db, long sb) {
+            return (pa != pb) ? pa > pb : sa - sb < 0L;
+        }
+    },
+    /**
+     * Earliest deadline first: of threads performing timed acquires,
+     * the one whose timeout expires first is chosen; threads
+     * acquiring without a timeout are chosen only if there are none.
+     */
+    DEADLINE {
+        boolean precedes(int pa, long da, long sa, int pb, long db, long sb) {
+            if (da != db) {
+                if (da == 0L)
+                    return false;
+                if (db == 0L)
+                    return true;
+                return da - db < 0L;
+            }
+            return sa - sb < 0L;
+        }
+    };
+
+    /**
+     * Returns true if a waiter with priority pa, deadline da (zero
+     * if none) and arrival sequence number sa is to be chosen before
+     * one with pb, db and sb.
+     */
+    abstract boolean precedes(int pa, long da, long sa,
+                              int pb, long db, long sb);
+}
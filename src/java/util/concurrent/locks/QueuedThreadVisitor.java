@@ -0,0 +1,27 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+/**
+ * A visitor of the threads waiting to acquire a synchronizer, used
+ * with {@link AbstractQueuedSynchronizer#visitQueuedThreads} and
+ * {@link AbstractQueuedLongSynchronizer#visitQueuedThreads} to
+ * inspect the wait queue without allocating a collection.  Visitors
+ * are invoked without holding any lock, and should be short and not
+ * block.
+ */
+public interface QueuedThreadVisitor {
+
+    /**
+     * Visits a thread that may be waiting to acquire.
+     *
+     * @param thread the waiting thread
+     * @param shared {@code true} if the thread is waiting to acquire
+     *        in shared mode, else {@code false}
+     * @return {@code true} to continue visiting, or {@code false} to stop
+     */
+    boolean visit(Thread thread, boolean shared);
+}
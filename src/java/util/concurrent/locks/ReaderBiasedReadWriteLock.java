@@ -0,0 +1,479 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A {@link ReadWriteLock} in which, while reads predominate, readers
+ * avoid updating any location shared with other readers, using the
+ * reader-biasing technique described by Dice and Kogan as BRAVO.
+ * This lock wraps a {@link ReentrantReadWriteLock}, used whenever
+ * reader bias is not in effect.  While biased, a reader instead
+ * publishes itself in a slot of a table of reader indicators, chosen
+ * by hashing its thread, and proceeds without acquiring the
+ * underlying read lock.  Readers hashing to different slots write
+ * only to different cache lines, so reading scales with the number
+ * of processors.  A reader finding its slot taken by another thread
+ * uses the underlying read lock.
+ *
+ * <p>A writer acquires the underlying write lock, and then, if reader
+ * bias is in effect, revokes it, waiting for all readers that
+ * published themselves to release.  Revocation is expensive, so
+ * after a revocation reader bias is not restored, by a reader using
+ * the underlying read lock, until a period proportional to the time
+ * the revocation took has elapsed.  When writes are frequent the lock
+ * thus behaves as the underlying lock.  Writers waiting for readers
+ * to release spin and yield rather than block.
+ *
+ * <p>Both locks are reentrant, and the write lock may be downgraded
+ * by acquiring the read lock while holding it, as for {@link
+ * ReentrantReadWriteLock}, whose fairness policy, if chosen, applies
+ * to threads using the underlying lock.  As with that class, a
+ * thread holding the read lock must not attempt to acquire the write
+ * lock.  The write lock supports conditions; the read lock does not.
+ */
+public class ReaderBiasedReadWriteLock implements ReadWriteLock {
+
+    static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The spacing of reader indicators in their arrays, so that
+     * indicators of different slots lie in different cache lines.
+     */
+    static final int STRIDE = 16;
+
+    /** The number of reader slots: a power of two, at least 4 per CPU */
+    static final int SLOTS;
+    static {
+        int n = 16;
+        while (n < NCPU << 2)
+            n <<= 1;
+        SLOTS = n;
+    }
+
+    /** Number of spins waiting for a slot to drain before yielding */
+    static final int MAX_SPINS = (NCPU < 2) ? 0 : 1 << 6;
+
+    /**
+     * The multiple of the time taken by a revocation for which
+     * reader bias is not restored.
+     */
+    static final int INHIBIT_MULTIPLIER = 9;
+
+    /** The underlying lock */
+    private final ReentrantReadWriteLock lock;
+    private final Lock underlyingReadLock;
+    private final Lock underlyingWriteLock;
+
+    private final ReadLock readerLock;
+    private final WriteLock writerLock;
+
+    /** True if readers may publish themselves rather than lock */
+    private volatile boolean readerBias;
+
+    /**
+     * The time before which reader bias is not restored.  Written
+     * only while holding the underlying write lock, and read only
+     * while holding the underlying read lock.
+     */
+    private long inhibitUntil;
+
+    /** The number of revocations, updated only by writers */
+    private volatile long revocations;
+
+    /**
+     * The reader indicators: the thread publishing itself in each
+     * slot, or null if none, at every STRIDE'th element.
+     */
+    private final AtomicReferenceArray<Thread> readers;
+
+    /**
+     * The number of read holds of the thread in each slot,
+     * accessed only by that thread.
+     */
+    private final int[] holds;
+
+    /**
+     * Creates a new {@code ReaderBiasedReadWriteLock} with default
+     * (nonfair) ordering properties.
+     */
+    public ReaderBiasedReadWriteLock() {
+        this(false);
+    }
+
+    /**
+     * Creates a new {@code ReaderBiasedReadWriteLock} whose underlying
+     * lock has the given fairness policy.
+     *
+     * @param fair {@code true} if the underlying lock should use a
+     *        fair ordering policy
+     */
+    public ReaderBiasedReadWriteLock(boolean fair) {
+        lock = new ReentrantReadWriteLock(fair);
+        underlyingReadLock = lock.readLock();
+        underlyingWriteLock = lock.writeLock();
+        readers = new AtomicReferenceArray<Thread>(SLOTS * STRIDE);
+        holds = new int[SLOTS * STRIDE];
+        readerLock = new ReadLock();
+        writerLock = new WriteLock();
+        inhibitUntil = System.nanoTime();
+        readerBias = true;
+    }
+
+    public Lock readLock()  { return readerLock; }
+    public Lock writeLock() { return writerLock; }
+
+    /**
+     * Returns the index of the reader indicator for the given thread.
+     */
+    static int slotFor(Thread t) {
+        long id = t.getId();
+        int h = (int)(id ^ (id >>> 32)) * 0x9e3779b9;
+        return ((h >>> 16) & (SLOTS - 1)) * STRIDE;
+    }
+
+    /**
+     * Tries to acquire the read lock by publishing the current
+     * thread, or, if already published, by incrementing its hold
+     * count.
+     */
+    private boolean tryBiasedRead(Thread t) {
+        int i = slotFor(t);
+        Thread r = readers.get(i);
+        if (r == t) {
+            if (holds[i] == Integer.MAX_VALUE)
+                throw new Error("Maximum lock count exceeded");
+            ++holds[i];
+            return true;
+        }
+        if (r == null && readerBias && readers.compareAndSet(i, null, t)) {
+            if (readerBias) {
+                holds[i] = 1;
+                return true;
+            }
+            readers.set(i, null); // revoked while publishing
+        }
+        return false;
+    }
+
+    /**
+     * Called after acquiring the underlying read lock, to restore
+     * reader bias if the inhibition period has elapsed, unless the
+     * current thread is downgrading from the write lock.
+     */
+    private void readAcquired() {
+        if (!readerBias && System.nanoTime() - inhibitUntil >= 0L &&
+            !lock.isWriteLockedByCurrentThread())
+            readerBias = true;
+    }
+
+    /**
+     * Called while holding the underlying write lock to revoke reader
+     * bias, waiting for published readers to release.
+     *
+     * @return true if revoked, false if the deadline passed first
+     * @throws InterruptedException if interruptible and interrupted
+     */
+    private boolean revokeBias(boolean interruptible, boolean timed,
+                               long deadline)
+        throws InterruptedException {
+        if (!readerBias)
+            return true;
+        readerBias = false;
+        long start = System.nanoTime();
+        for (int i = 0; i < readers.length(); i += STRIDE) {
+            for (int spins = 0; readers.get(i) != null; ) {
+                if (interruptible && Thread.interrupted())
+                    throw new InterruptedException();
+                if (timed && deadline - System.nanoTime() <= 0L)
+                    return false;
+                if (spins < MAX_SPINS)
+                    ++spins;
+                else
+                    Thread.yield();
+            }
+        }
+        long now = System.nanoTime();
+        inhibitUntil = now + (now - start) * INHIBIT_MULTIPLIER;
+        ++revocations;
+        return true;
+    }
+
+    /**
+     * Revokes bias when it can neither time out nor be interrupted.
+     */
+    private void revokeBias() {
+        try {
+            revokeBias(false, false, 0L);
+        } catch (InterruptedException cannotHappen) {
+            throw new Error(cannotHappen);
+        }
+    }
+
+    /**
+     * The lock returned by method {@link #readLock}.
+     */
+    final class ReadLock implements Lock {
+
+        public void lock() {
+            if (!tryBiasedRead(Thread.currentThread())) {
+                underlyingReadLock.lock();
+                readAcquired();
+            }
+        }
+
+        public void lockInterruptibly() throws InterruptedException {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            if (!tryBiasedRead(Thread.currentThread())) {
+                underlyingReadLock.lockInterruptibly();
+                readAcquired();
+            }
+        }
+
+        public boolean tryLock() {
+            if (tryBiasedRead(Thread.currentThread()))
+                return true;
+            if (!underlyingReadLock.tryLock())
+                return false;
+            readAcquired();
+            return true;
+        }
+
+        public boolean tryLock(long timeout, TimeUnit unit)
+            throws InterruptedException {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+            if (tryBiasedRead(Thread.currentThread()))
+                return true;
+            if (!underlyingReadLock.tryLock(timeout, unit))
+                return false;
+            readAcquired();
+            return true;
+        }
+
+        /**
+         * Releases a hold of the read lock, which is published if the
+         * current thread is published, and otherwise a hold of the
+         * underlying read lock.
+         *
+         * @throws IllegalMonitorStateException if the current thread
+         *         does not hold this lock
+         */
+        public void unlock() {
+            Thread t = Thread.currentThread();
+            int i = slotFor(t);
+            if (readers.get(i) == t) {
+                if (--holds[i] == 0)
+                    readers.set(i, null);
+            }
+            else
+                underlyingReadLock.unlock();
+        }
+
+        /**
+         * Throws {@code UnsupportedOperationException} because
+         * read locks do not support conditions.
+         *
+         * @throws UnsupportedOperationException always
+         */
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+
+        public String toString() {
+            return super.toString() +
+                "[Read locks = " + lock.getReadLockCount() +
+                (readerBias ? ", biased]" : "]");
+        }
+    }
+
+    /**
+     * The lock returned by method {@link #writeLock}.
+     */
+    final class WriteLock implements Lock {
+
+        public void lock() {
+            underlyingWriteLock.lock();
+            revokeBias();
+        }
+
+        public void lockInterruptibly() throws InterruptedException {
+            underlyingWriteLock.lockInterruptibly();
+            try {
+                revokeBias(true, false, 0L);
+            } catch (InterruptedException ie) {
+                underlyingWriteLock.unlock();
+                throw ie;
+            }
+        }
+
+        /**
+         * Acquires the write lock only if it is free and no published
+         * readers hold the read lock.
+         */
+        public boolean tryLock() {
+            if (!underlyingWriteLock.tryLock())
+                return false;
+            boolean revoked = false;
+            try {
+                revoked = revokeBias(false, true, System.nanoTime());
+            } catch (InterruptedException cannotHappen) {
+                // not interruptible
+            } finally {
+                if (!revoked)
+                    underlyingWriteLock.unlock();
+            }
+            return revoked;
+        }
+
+        public boolean tryLock(long timeout, TimeUnit unit)
+            throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            if (!underlyingWriteLock.tryLock(timeout, unit))
+                return false;
+            boolean revoked = false;
+            try {
+                revoked = revokeBias(true, true, deadline);
+            } finally {
+                if (!revoked)
+                    underlyingWriteLock.unlock();
+            }
+            return revoked;
+        }
+
+        public void unlock() {
+            underlyingWriteLock.unlock();
+        }
+
+        /**
+         * Returns a {@link Condition} instance for use with this
+         * lock, behaving as do those of the write lock of {@link
+         * ReentrantReadWriteLock}.
+         *
+         * @return the Condition object
+         */
+        public Condition newCondition() {
+            return new BiasRevokingCondition(underlyingWriteLock.newCondition());
+        }
+
+        public String toString() {
+            Thread o = lock.getOwner();
+            return super.toString() + ((o == null) ?
+                                       "[Unlocked]" :
+                                       "[Locked by thread " + o.getName() + "]");
+        }
+    }
+
+    /**
+     * A condition of the underlying write lock that, upon
+     * reacquiring the lock after waiting, revokes any bias that
+     * readers restored in the meantime.
+     */
+    final class BiasRevokingCondition implements Condition {
+        private final Condition condition;
+
+        BiasRevokingCondition(Condition condition) {
+            this.condition = condition;
+        }
+
+        public void await() throws InterruptedException {
+            try {
+                condition.await();
+            } finally {
+                revokeBias();
+            }
+        }
+
+        public void awaitUninterruptibly() {
+            condition.awaitUninterruptibly();
+            revokeBias();
+        }
+
+        public long awaitNanos(long nanosTimeout) throws InterruptedException {
+            try {
+                return condition.awaitNanos(nanosTimeout);
+            } finally {
+                revokeBias();
+            }
+        }
+
+        public boolean await(long time, TimeUnit unit)
+            throws InterruptedException {
+            try {
+                return condition.await(time, unit);
+            } finally {
+                revokeBias();
+            }
+        }
+
+        public boolean awaitUntil(Date deadline) throws InterruptedException {
+            try {
+                return condition.awaitUntil(deadline);
+            } finally {
+                revokeBias();
+            }
+        }
+
+        public void signal() {
+            condition.signal();
+        }
+
+        public void signalAll() {
+            condition.signalAll();
+        }
+    }
+
+    /**
+     * Returns {@code true} if readers currently publish themselves
+     * rather than acquire the underlying read lock.  This method is
+     * designed for use in monitoring system state, not for
+     * synchronization control.
+     *
+     * @return {@code true} if reader bias is in effect
+     */
+    public boolean isReaderBiased() {
+        return readerBias;
+    }
+
+    /**
+     * Returns the number of times a writer has revoked reader bias.
+     * This method is designed for use in monitoring and tuning, not
+     * for synchronization control.
+     *
+     * @return the number of revocations
+     */
+    public long getRevocationCount() {
+        return revocations;
+    }
+
+    /**
+     * Queries if the write lock is held by any thread.
+     *
+     * @return {@code true} if any thread holds the write lock and
+     *         {@code false} otherwise
+     */
+    public boolean isWriteLocked() {
+        return lock.isWriteLocked();
+    }
+
+    /**
+     * Returns a string identifying this lock, as well as its lock
+     * state.  Readers that published themselves are not included in
+     * the number of read locks.
+     *
+     * @return a string identifying this lock, as well as its lock state
+     */
+    public String toString() {
+        return super.toString() +
+            "[Write locks = " + (lock.isWriteLocked() ? 1 : 0) +
+            ", Read locks = " + lock.getReadLockCount() +
+            (readerBias ? ", biased]" : "]");
+    }
+}
@@ -37,6 +37,7 @@ package java.util.concurrent.locks;
 
 import java.util.Collection;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * A reentrant mutual exclusion {@link Lock} with the same basic
@@ -64,7 +65,9 @@ import java.util.concurrent.TimeUnit;
  * fairness of thread scheduling. Thus, one of many threads using a
  * fair lock may obtain it multiple times in succession while other
  * active threads are not progressing and not currently holding the
- * lock.
+ * lock.  A lock may instead be created with an adaptive policy
+ * that allows barging only while waiting threads have not waited
+ * too long; see {@link #ReentrantLock(long, TimeUnit)}.
  * Also note that the untimed {@link #tryLock() tryLock} method does not
  * honor the fairness setting. It will succeed if the lock
  * is available even if other threads are waiting.
@@ -111,6 +114,18 @@ public class ReentrantLock implements Lock, java.io.Serializable {
     /** Synchronizer providing all implementation mechanics */
     private final Sync sync;
 
+    /** Profiler sampling acquires of this lock, or null if none */
+    private transient volatile LockProfiler profiler;
+
+    /*
+     * State of the current sampled hold, if any. Written only by the
+     * owner while holding the lock. A sample is abandoned if another
+     * thread samples while its owner is waiting on a condition.
+     */
+    private transient Thread profiledThread;
+    private transient LockProfiler.Site profiledSite;
+    private transient long profiledHoldStart;
+
     /**
      * Base of synchronization control for this lock. Subclassed
      * into fair and nonfair versions below. Uses AQS state to
@@ -125,6 +140,300 @@ public class ReentrantLock implements Lock, java.io.Serializable {
          */
         abstract void lock();
 
+        /**
+         * Adaptive spin state, or null if this lock does not spin.
+         * Set only during construction of the enclosing lock.
+         */
+        private AdaptiveSpin spinner;
+
+        /**
+         * Enables adaptive spinning, both before enqueuing in lock()
+         * and by the first queued thread.
+         */
+        final void enableSpinning() {
+            spinner = new AdaptiveSpin();
+            setWaitStrategy(spinner);
+        }
+
+        final boolean isSpinning() {
+            return spinner != null;
+        }
+
+        /**
+         * Queue ordering, or null if FIFO. Set only during
+         * construction of the enclosing lock.
+         */
+        private QueueOrdering ordering;
+
+        final void setOrdering(QueueOrdering ordering) {
+            this.ordering = ordering;
+            setQueueOrdering(ordering);
+        }
+
+        /*
+         * Biasing.  While a lock is biased to a thread, the AQS state
+         * is nonzero and owned by that thread even when it does not
+         * hold the lock, so other threads fail to acquire it, and the
+         * biased thread performs its outermost lock and unlock by
+         * setting and clearing the held field of the current Bias,
+         * without atomic read-modify-write instructions or writing
+         * the owner.  Nested holds are counted in the state as usual,
+         * so the state is the hold count whenever the biased thread
+         * holds the lock, as AQS methods and conditions expect.
+         *
+         * Revocation is a handshake on two volatile fields of the
+         * Bias: The biased thread sets held and then reads
+         * revokeRequested, and a contending thread sets
+         * revokeRequested and then reads held, so at least one of
+         * them sees the other's write.  If the contending thread sees
+         * that the lock is not held, it revokes the bias itself and
+         * takes over the lock.  Otherwise it waits in the queue as
+         * usual, and the biased thread, which then sees the request
+         * upon its next lock or outermost unlock, revokes the bias,
+         * releasing the lock if it is not keeping it, which wakes the
+         * waiting thread.  Either way, the revoking thread is the one
+         * that wins a CAS of the Bias's revoked field, so revocation
+         * happens once, whether or not the biased thread ever uses
+         * the lock again.  A contending thread that revokes sets the
+         * owner and state before clearing bias, so a thread that
+         * reads bias as null and then reads the owner sees the new
+         * one; the biased thread therefore reads bias before the
+         * owner when checking whether it holds the lock.  A new Bias
+         * is created for each bias, so a thread delayed across a
+         * revocation and rebias writes only its own stale Bias.
+         *
+         * A lock is biased to the thread performing an uncontended
+         * outermost lock(), lockWithPriority or timed tryLock when it
+         * is not already biased.  The biased thread then checks
+         * whether any thread has queued, in which case it immediately
+         * gives up the bias, while a thread that has queued checks
+         * for bias in tryAcquire, so that at least one of them
+         * notices the other.  After MAX_REVOCATIONS revocations,
+         * including those upon a full release while biased, as by
+         * Condition.await, the lock is never biased again.
+         */
+
+        /** Number of revocations after which a lock is not rebiased */
+        static final int MAX_REVOCATIONS = 4;
+
+        /**
+         * The thread a lock is biased to, and the handshake state for
+         * revoking the bias.
+         */
+        static final class Bias {
+            final Thread owner;
+            /** True if owner holds the lock. Written only by owner */
+            volatile boolean held;
+            /** Set by threads needing the bias to be revoked */
+            volatile boolean revokeRequested;
+            /** Set to 1 by the thread revoking the bias */
+            volatile int revoked;
+
+            Bias(Thread owner) {
+                this.owner = owner;
+                this.held = true;
+            }
+
+            /**
+             * Claims revocation of this bias.
+             *
+             * @return {@code true} if the current thread is to revoke it
+             */
+            boolean revoke() {
+                return revokedUpdater.compareAndSet(this, 0, 1);
+            }
+
+            private static final AtomicIntegerFieldUpdater<Bias>
+                revokedUpdater = AtomicIntegerFieldUpdater.newUpdater
+                (Bias.class, "revoked");
+        }
+
+        /** True if biasing is enabled */
+        private boolean biasable;
+
+        /** The current bias, or null if unbiased */
+        private transient volatile Bias bias;
+
+        /** Number of revocations.  Updated racily. */
+        private transient int revocations;
+
+        /**
+         * Enables biasing. Invoked only during construction of the
+         * enclosing lock.
+         */
+        final void enableBiasing() {
+            biasable = true;
+        }
+
+        final boolean isBiasable() {
+            return biasable;
+        }
+
+        /**
+         * Performs lock for a biasable lock: acquires using the bias
+         * if biased to the current thread, else acquires as usual,
+         * and then tries to bias the lock to the current thread.
+         */
+        final void biasableLock() {
+            if (!enterOwnBias()) {
+                lock();
+                biasIfPossible();
+            }
+        }
+
+        /**
+         * Acquires using the bias, if biased to the current thread
+         * and not held.
+         *
+         * @return {@code true} if acquired
+         */
+        final boolean enterOwnBias() {
+            Bias b = bias;
+            return (b != null && b.owner == Thread.currentThread() &&
+                    !b.held && acquireBias(b));
+        }
+
+        /**
+         * Invoked after an acquire not using the bias, to bias the
+         * lock to the current thread if it is not biased, has not
+         * been revoked too often, and is held only once.
+         */
+        final void biasIfPossible() {
+            if (bias == null && revocations < MAX_REVOCATIONS &&
+                getState() == 1)
+                bias(Thread.currentThread());
+        }
+
+        /**
+         * Performs unlock using the bias, if possible, revoking the
+         * bias if requested.
+         *
+         * @return {@code true} if released
+         */
+        final boolean biasedUnlock() {
+            Bias b = bias;
+            if (b == null || b.owner != Thread.currentThread() ||
+                !b.held || getState() != 1)
+                return false;
+            b.held = false;
+            // Pairs with contendBias; see above
+            if (b.revokeRequested && b.revoke()) {
+                ++revocations;
+                bias = null;
+                release(1);
+            }
+            return true;
+        }
+
+        /**
+         * Biases this lock to the current thread, which holds it once,
+         * unless threads are queued.
+         */
+        private void bias(Thread current) {
+            Bias b = new Bias(current);
+            bias = b;
+            if (hasQueuedThreads() && b.revoke())
+                bias = null;
+        }
+
+        /**
+         * Acquires using a bias to the current thread that it does
+         * not hold.  If revocation has been requested, revokes the
+         * bias, so that the current thread holds the lock as usual,
+         * unless a contending thread has revoked it first.
+         *
+         * @return {@code true} if acquired
+         */
+        private boolean acquireBias(Bias b) {
+            b.held = true;
+            // Pairs with contendBias; see above
+            if (!b.revokeRequested)
+                return true;
+            if (b.revoke()) {
+                ++revocations;
+                bias = null;
+                return true;
+            }
+            b.held = false;
+            return false;
+        }
+
+        /**
+         * Invoked upon a failed tryAcquire by a thread other than the
+         * owner: requests revocation of bias, and revokes it itself
+         * if the biased thread does not hold the lock.
+         *
+         * @return {@code true} if acquired upon revoking the bias
+         */
+        final boolean contendBias(Thread current, int acquires) {
+            Bias b = bias;
+            if (b == null || b.owner == current)
+                return false;
+            if (!b.revokeRequested)
+                b.revokeRequested = true;
+            // Pairs with acquireBias and biasedUnlock; see above
+            if (b.held || !b.revoke())
+                return false;
+            ++revocations;
+            setExclusiveOwnerThread(current);
+            setState(acquires);
+            bias = null;
+            return true;
+        }
+
+        /**
+         * Invoked upon a tryAcquire by the apparent owner, acquiring
+         * using the bias if biased to the current thread but not
+         * held, and otherwise rechecking the owner, which may have
+         * been taken over upon revocation since it was read.
+         *
+         * @return 1 if acquired using the bias, -1 if the lock is
+         *         owned by another thread, or 0 if the current thread
+         *         holds the lock and should acquire reentrantly
+         */
+        final int enterBias(Thread current) {
+            Bias b = bias;
+            if (b == null || b.owner != current)
+                return (getExclusiveOwnerThread() == current) ? 0 : -1;
+            if (b.held)
+                return 0;
+            return acquireBias(b) ? 1 : -1;
+        }
+
+        /**
+         * Spins trying to acquire, for at most the current adaptive
+         * spin duration, while the owner appears to be running and no
+         * other threads are queued.  The duration grows on success and
+         * shrinks on failure, so that it tracks whether the lock has
+         * recently been held only briefly.  A reentrant acquire does
+         * not spin, as the owner being watched would be the current
+         * thread, and leaves the duration unchanged.
+         *
+         * @return {@code true} if acquired
+         */
+        final boolean spinAcquire(int acquires) {
+            AdaptiveSpin s = spinner;
+            if (s == null ||
+                getExclusiveOwnerThread() == Thread.currentThread())
+                return false;
+            int limit = s.duration;
+            for (int i = 0; i < limit; ++i) {
+                if (getState() == 0) {
+                    if (tryAcquire(acquires)) {
+                        s.succeeded();
+                        return true;
+                    }
+                    if (hasQueuedPredecessors())
+                        break;  // leave it to the first queued thread
+                }
+                if ((i & (AdaptiveSpin.OWNER_CHECK_INTERVAL - 1)) == 0 &&
+                    !AdaptiveSpin.isRunning(getExclusiveOwnerThread()))
+                    break;
+            }
+            s.failed();
+            return false;
+        }
+
         /**
          * Performs non-fair tryLock.  tryAcquire is
          * implemented in subclasses, but both need nonfair
@@ -140,21 +449,34 @@ public class ReentrantLock implements Lock, java.io.Serializable {
                 }
             }
             else if (current == getExclusiveOwnerThread()) {
+                int e;
+                if (biasable && (e = enterBias(current)) != 0)
+                    return e > 0;
                 int nextc = c + acquires;
                 if (nextc < 0) // overflow
                     throw new Error("Maximum lock count exceeded");
                 setState(nextc);
                 return true;
             }
+            else if (biasable && contendBias(current, acquires))
+                return true;
             return false;
         }
 
         protected final boolean tryRelease(int releases) {
+            Bias b = biasable ? bias : null; // read before owner
             int c = getState() - releases;
             if (Thread.currentThread() != getExclusiveOwnerThread())
                 throw new IllegalMonitorStateException();
             boolean free = false;
             if (c == 0) {
+                if (b != null) {
+                    // Fully released while biased, as by Condition.await
+                    if (!b.held || !b.revoke())
+                        throw new IllegalMonitorStateException();
+                    ++revocations;
+                    bias = null;
+                }
                 free = true;
                 setExclusiveOwnerThread(null);
             }
@@ -165,7 +487,10 @@ public class ReentrantLock implements Lock, java.io.Serializable {
         protected final boolean isHeldExclusively() {
             // While we must in general read state before owner,
             // we don't need to do so to check if current thread is owner
-            return getExclusiveOwnerThread() == Thread.currentThread();
+            Thread current = Thread.currentThread();
+            Bias b = biasable ? bias : null; // read before owner
+            return getExclusiveOwnerThread() == current &&
+                (b == null || b.owner != current || b.held);
         }
 
         final ConditionObject newCondition() {
@@ -175,7 +500,7 @@ public class ReentrantLock implements Lock, java.io.Serializable {
         // Methods relayed from outer class
 
         final Thread getOwner() {
-            return getState() == 0 ? null : getExclusiveOwnerThread();
+            return isLocked() ? getExclusiveOwnerThread() : null;
         }
 
         final int getHoldCount() {
@@ -183,7 +508,9 @@ public class ReentrantLock implements Lock, java.io.Serializable {
         }
 
         final boolean isLocked() {
-            return getState() != 0;
+            Bias b;
+            return getState() != 0 &&
+                (!biasable || (b = bias) == null || b.held);
         }
 
         /**
@@ -194,6 +521,79 @@ public class ReentrantLock implements Lock, java.io.Serializable {
             throws java.io.IOException, ClassNotFoundException {
             s.defaultReadObject();
             setState(0); // reset to unlocked state
+            if (spinner != null)
+                setWaitStrategy(spinner);
+            if (ordering != null)
+                setQueueOrdering(ordering);
+        }
+    }
+
+    /**
+     * Owner-aware adaptive spin policy, in the style of the spinning
+     * performed for built-in monitors.  A thread spins only while the
+     * current owner is runnable, as a blocked or descheduled owner
+     * cannot release soon.  The per-lock spin duration is increased
+     * by a small bonus each time a spin succeeds and decreased by a
+     * larger penalty each time one fails, so a lock whose recent hold
+     * times were short is spun on, and one whose recent hold times
+     * were long quickly stops spinning.  The duration never falls
+     * below a small floor, so that a lock whose hold times become
+     * short again is noticed.  On uniprocessors, spinning is useless,
+     * so the duration is always zero.
+     */
+    static final class AdaptiveSpin extends WaitStrategy
+        implements java.io.Serializable {
+        private static final long serialVersionUID = -2361640522537373424L;
+
+        /** Number of CPUS, to place bounds on spinning */
+        static final int NCPU = Runtime.getRuntime().availableProcessors();
+
+        /** Upper bound on the spin duration */
+        static final int MAX_SPINS = (NCPU < 2) ? 0 : 1 << 13;
+
+        /** Lower bound on the spin duration */
+        static final int MIN_SPINS = (NCPU < 2) ? 0 : 1 << 6;
+
+        /** Amount added to the spin duration upon success */
+        static final int BONUS = 1 << 7;
+
+        /** Amount subtracted from the spin duration upon failure */
+        static final int PENALTY = 1 << 8;
+
+        /**
+         * Number of spins between checks of the owner's thread
+         * state; a power of two.
+         */
+        static final int OWNER_CHECK_INTERVAL = 1 << 4;
+
+        /**
+         * The current spin duration. Updated racily, since lost
+         * updates only perturb a heuristic.
+         */
+        volatile int duration = MAX_SPINS >>> 1;
+
+        static boolean isRunning(Thread owner) {
+            // An unset owner means the lock was just released or is
+            // just being acquired, so keep trying
+            return owner == null || owner.getState() == Thread.State.RUNNABLE;
+        }
+
+        void succeeded() {
+            int d = duration;
+            if (d < MAX_SPINS)
+                duration = Math.min(d + BONUS, MAX_SPINS);
+        }
+
+        void failed() {
+            int d = duration;
+            if (d > MIN_SPINS)
+                duration = Math.max(d - PENALTY, MIN_SPINS);
+        }
+
+        public boolean spin(AbstractOwnableSynchronizer sync, int spins) {
+            return spins < duration &&
+                ((spins & (OWNER_CHECK_INTERVAL - 1)) != 0 ||
+                 isRunning(sync.getExclusiveOwnerThread()));
         }
     }
 
@@ -210,7 +610,7 @@ public class ReentrantLock implements Lock, java.io.Serializable {
         final void lock() {
             if (compareAndSetState(0, 1))
                 setExclusiveOwnerThread(Thread.currentThread());
-            else
+            else if (!spinAcquire(1))
                 acquire(1);
         }
 
@@ -226,7 +626,8 @@ public class ReentrantLock implements Lock, java.io.Serializable {
         private static final long serialVersionUID = -3000897897090466540L;
 
         final void lock() {
-            acquire(1);
+            if (!spinAcquire(1))
+                acquire(1);
         }
 
         /**
@@ -244,16 +645,94 @@ public class ReentrantLock implements Lock, java.io.Serializable {
                 }
             }
             else if (current == getExclusiveOwnerThread()) {
+                int e;
+                if (isBiasable() && (e = enterBias(current)) != 0)
+                    return e > 0;
                 int nextc = c + acquires;
                 if (nextc < 0)
                     throw new Error("Maximum lock count exceeded");
                 setState(nextc);
                 return true;
             }
+            else if (isBiasable() && contendBias(current, acquires))
+                return true;
             return false;
         }
     }
 
+    /**
+     * Sync object for adaptive locks, which barge as do non-fair
+     * locks until the first queued thread has waited longer than a
+     * bound, and then hand off to queued threads in order, as do fair
+     * locks, until the first queued thread is again within the bound.
+     */
+    static final class AdaptiveSync extends Sync {
+        private static final long serialVersionUID = -4916328705724563092L;
+
+        /** The longest the first queued thread may wait before handoff */
+        final long maxWaitNanos;
+
+        AdaptiveSync(long maxWaitNanos) {
+            this.maxWaitNanos = maxWaitNanos;
+            enableEnqueueTimes();
+        }
+
+        /**
+         * Returns true if the first queued thread has waited too long
+         * for arriving threads to barge ahead of it.
+         */
+        private boolean handoffDue() {
+            return getFirstQueuedWaitNanos() > maxWaitNanos;
+        }
+
+        /**
+         * Performs lock.  Try immediate barge unless handoff is due,
+         * backing up to normal acquire on failure.
+         */
+        final void lock() {
+            if (!handoffDue() && compareAndSetState(0, 1))
+                setExclusiveOwnerThread(Thread.currentThread());
+            else if (!spinAcquire(1))
+                acquire(1);
+        }
+
+        /**
+         * Adaptive version of tryAcquire.  Grant access as does the
+         * non-fair version unless handoff is due, in which case grant
+         * access as does the fair version.
+         */
+        protected final boolean tryAcquire(int acquires) {
+            final Thread current = Thread.currentThread();
+            int c = getState();
+            if (c == 0) {
+                if ((!handoffDue() || !hasQueuedPredecessors()) &&
+                    compareAndSetState(0, acquires)) {
+                    setExclusiveOwnerThread(current);
+                    return true;
+                }
+            }
+            else if (current == getExclusiveOwnerThread()) {
+                int e;
+                if (isBiasable() && (e = enterBias(current)) != 0)
+                    return e > 0;
+                int nextc = c + acquires;
+                if (nextc < 0)
+                    throw new Error("Maximum lock count exceeded");
+                setState(nextc);
+                return true;
+            }
+            else if (isBiasable() && contendBias(current, acquires))
+                return true;
+            return false;
+        }
+
+        private void readObject(java.io.ObjectInputStream s)
+            throws java.io.IOException, ClassNotFoundException {
+            s.defaultReadObject();
+            enableEnqueueTimes();
+        }
+    }
+
     /**
      * Creates an instance of {@code ReentrantLock}.
      * This is equivalent to using {@code ReentrantLock(false)}.
@@ -272,6 +751,117 @@ public class ReentrantLock implements Lock, java.io.Serializable {
         sync = fair ? new FairSync() : new NonfairSync();
     }
 
+    /**
+     * Creates an instance of {@code ReentrantLock} with the
+     * given fairness policy and spinning policy.
+     *
+     * <p>When spinning is enabled, a thread that finds the lock held
+     * in {@link #lock} spins retrying for a while before blocking, as
+     * does the longest-waiting thread before blocking again.  Spinning
+     * continues only while the owning thread is runnable, and for at
+     * most a duration that adapts to whether recent spins succeeded,
+     * so that locks usually held only briefly are handed off without
+     * blocking, while locks held for longer periods do not waste
+     * processor time.
+     *
+     * @param fair {@code true} if this lock should use a fair ordering policy
+     * @param spin {@code true} if this lock should spin adaptively
+     *        before blocking
+     */
+    public ReentrantLock(boolean fair, boolean spin) {
+        this(fair);
+        if (spin)
+            sync.enableSpinning();
+    }
+
+    /**
+     * Creates an instance of {@code ReentrantLock} with the given
+     * fairness, spinning and biasing policies.
+     *
+     * <p>A biased lock is optimized for the common case of a lock
+     * that is only ever used by one thread.  When a thread locks a
+     * biased lock that is not in use, the lock becomes biased to that
+     * thread, after which that thread's outermost {@link #lock},
+     * {@link #lockWithPriority}, timed {@link #tryLock(long, TimeUnit)
+     * tryLock} and {@link #unlock} calls avoid atomic read-modify-write
+     * instructions, performing only volatile writes and reads.  While
+     * biased, the lock remains reserved for that thread even when it
+     * does not hold the lock, so when another thread attempts to
+     * acquire it, the bias must first be revoked.  If the biased
+     * thread does not hold the lock, the attempting thread revokes
+     * the bias itself and acquires the lock; otherwise the bias is
+     * revoked by the biased thread when it next unlocks, and until
+     * then the attempting thread waits as if the lock were held.  A
+     * lock whose bias has been revoked may later become biased to
+     * another thread, but after repeated revocations it reverts
+     * permanently to ordinary locking.
+     *
+     * <p>Biasing is therefore appropriate for locks used mainly by a
+     * single thread, or by threads that each use it for long periods.
+     * Other methods are unaffected, but do not avoid atomic
+     * instructions.  Biasing is
+     * retained upon serialization.
+     *
+     * @param fair {@code true} if this lock should use a fair ordering policy
+     * @param spin {@code true} if this lock should spin before blocking
+     * @param biased {@code true} if this lock should be biased to a
+     *        single thread when possible
+     */
+    public ReentrantLock(boolean fair, boolean spin, boolean biased) {
+        this(fair, spin);
+        if (biased)
+            sync.enableBiasing();
+    }
+
+    /**
+     * Creates an instance of {@code ReentrantLock} with an adaptive
+     * fairness policy.  Such a lock behaves as a non-fair lock,
+     * allowing threads to acquire it ahead of waiting threads, until
+     * the longest-waiting thread has waited longer than the given
+     * time.  From then on it behaves as a fair lock, granting the
+     * lock to waiting threads in order, until the longest-waiting
+     * thread has again waited no longer than the given time.  This
+     * bounds how long a thread waits behind barging threads, without
+     * the cost of fair ordering while waits are short.  The bound is
+     * not a bound on the time to acquire, which also depends on how
+     * long the lock is held by each of the threads queued ahead.
+     *
+     * <p>Such a lock is not considered {@linkplain #isFair fair}.
+     *
+     * @param maxWait the longest time the first waiting thread may
+     *        wait before the lock is handed off in order
+     * @param unit the time unit of the {@code maxWait} argument
+     * @throws IllegalArgumentException if maxWait is negative
+     * @throws NullPointerException if unit is null
+     */
+    public ReentrantLock(long maxWait, TimeUnit unit) {
+        if (maxWait < 0)
+            throw new IllegalArgumentException();
+        sync = new AdaptiveSync(unit.toNanos(maxWait));
+    }
+
+    /**
+     * Creates an instance of {@code ReentrantLock} that is granted to
+     * waiting threads in the given order.  Upon each unlock, the
+     * waiting thread that comes first in the ordering is chosen, and
+     * no other thread acquires the lock until it does, except by
+     * {@link #tryLock()}.  Such a lock is fair in the sense that
+     * threads do not acquire ahead of the chosen thread, so {@link
+     * #isFair} returns {@code true}.  A lock with ordering {@link
+     * QueueOrdering#FIFO} is equivalent to {@code ReentrantLock(true)}.
+     *
+     * @param ordering the order in which waiting threads are granted
+     *        the lock
+     * @throws NullPointerException if ordering is null
+     */
+    public ReentrantLock(QueueOrdering ordering) {
+        if (ordering == null)
+            throw new NullPointerException();
+        sync = new FairSync();
+        if (ordering != QueueOrdering.FIFO)
+            sync.setOrdering(ordering);
+    }
+
     /**
      * Acquires the lock.
      *
@@ -287,7 +877,92 @@ public class ReentrantLock implements Lock, java.io.Serializable {
      * at which time the lock hold count is set to one.
      */
     public void lock() {
-        sync.lock();
+        LockProfiler p = profiler;
+        if (p == null || sync.isHeldExclusively() || !p.sample())
+            doLock();
+        else {
+            LockProfiler.Site site = p.site();
+            long start = System.nanoTime();
+            doLock();
+            startProfiledHold(site, start);
+        }
+    }
+
+    private void doLock() {
+        if (sync.isBiasable())
+            sync.biasableLock();
+        else
+            sync.lock();
+    }
+
+    /**
+     * Acquires the lock as does {@link #lock}, except that if the
+     * current thread must wait, the given priority rather than the
+     * priority of the thread is used when this lock was created with
+     * ordering {@link QueueOrdering#PRIORITY}.  Under other orderings,
+     * the priority is ignored.
+     *
+     * @param priority the acquire priority; higher values are
+     *        granted first
+     * @throws IllegalArgumentException if priority is
+     *         {@code Integer.MIN_VALUE}
+     */
+    public void lockWithPriority(int priority) {
+        LockProfiler p = profiler;
+        if (p == null || sync.isHeldExclusively() || !p.sample())
+            doLockWithPriority(priority);
+        else {
+            LockProfiler.Site site = p.site();
+            long start = System.nanoTime();
+            doLockWithPriority(priority);
+            startProfiledHold(site, start);
+        }
+    }
+
+    private void doLockWithPriority(int priority) {
+        if (!sync.isBiasable())
+            sync.acquireWithPriority(1, priority);
+        else if (!sync.enterOwnBias()) {
+            sync.acquireWithPriority(1, priority);
+            sync.biasIfPossible();
+        }
+    }
+
+    /**
+     * Acquires the lock without blocking, then performs the given
+     * action while holding it, then releases it.
+     *
+     * <p>If the lock is available, or is held by the current thread,
+     * the action is performed immediately by the current thread.
+     * Otherwise this method returns immediately, leaving the request
+     * queued in the same order as threads waiting in {@link #lock},
+     * and the action is later performed by whichever thread acquires
+     * the lock on its behalf, typically the thread that next releases
+     * it.  While the action is performed, the lock is held by the
+     * thread performing it, so the action may use conditions of this
+     * lock and reacquire it reentrantly, but must not block waiting
+     * for other threads, and should be short.  An exception thrown by
+     * the action is passed to the {@linkplain
+     * Thread#getUncaughtExceptionHandler uncaught exception handler}
+     * of the thread performing it, after releasing the lock.
+     *
+     * <p>Actions performed in this way are not sampled by a {@link
+     * LockProfiler}.
+     *
+     * @param action the action to perform while holding the lock
+     * @throws NullPointerException if action is null
+     */
+    public void lockAsync(final Runnable action) {
+        if (action == null)
+            throw new NullPointerException();
+        sync.acquireAsync(1, new Runnable() {
+                public void run() {
+                    try {
+                        action.run();
+                    } finally {
+                        unlock();
+                    }
+                }});
     }
 
     /**
@@ -337,7 +1012,15 @@ public class ReentrantLock implements Lock, java.io.Serializable {
      * @throws InterruptedException if the current thread is interrupted
      */
     public void lockInterruptibly() throws InterruptedException {
-        sync.acquireInterruptibly(1);
+        LockProfiler p = profiler;
+        if (p == null || sync.isHeldExclusively() || !p.sample())
+            sync.acquireInterruptibly(1);
+        else {
+            LockProfiler.Site site = p.site();
+            long start = System.nanoTime();
+            sync.acquireInterruptibly(1);
+            startProfiledHold(site, start);
+        }
     }
 
     /**
@@ -367,7 +1050,15 @@ public class ReentrantLock implements Lock, java.io.Serializable {
      *         thread; and {@code false} otherwise
      */
     public boolean tryLock() {
-        return sync.nonfairTryAcquire(1);
+        LockProfiler p = profiler;
+        if (p == null || sync.isHeldExclusively() || !p.sample())
+            return sync.nonfairTryAcquire(1);
+        LockProfiler.Site site = p.site();
+        long start = System.nanoTime();
+        if (!sync.nonfairTryAcquire(1))
+            return false;
+        startProfiledHold(site, start);
+        return true;
     }
 
     /**
@@ -442,7 +1133,29 @@ public class ReentrantLock implements Lock, java.io.Serializable {
      */
     public boolean tryLock(long timeout, TimeUnit unit)
             throws InterruptedException {
-        return sync.tryAcquireNanos(1, unit.toNanos(timeout));
+        LockProfiler p = profiler;
+        if (p == null || sync.isHeldExclusively() || !p.sample())
+            return doTryLock(unit.toNanos(timeout));
+        LockProfiler.Site site = p.site();
+        long start = System.nanoTime();
+        if (!doTryLock(unit.toNanos(timeout)))
+            return false;
+        startProfiledHold(site, start);
+        return true;
+    }
+
+    private boolean doTryLock(long nanosTimeout)
+            throws InterruptedException {
+        if (!sync.isBiasable())
+            return sync.tryAcquireNanos(1, nanosTimeout);
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        if (sync.enterOwnBias())
+            return true;
+        if (!sync.tryAcquireNanos(1, nanosTimeout))
+            return false;
+        sync.biasIfPossible();
+        return true;
     }
 
     /**
@@ -457,7 +1170,34 @@ public class ReentrantLock implements Lock, java.io.Serializable {
      *         hold this lock
      */
     public void unlock() {
-        sync.release(1);
+        if (profiledThread != Thread.currentThread() ||
+            sync.getHoldCount() != 1)
+            doUnlock();
+        else {
+            long held = System.nanoTime() - profiledHoldStart;
+            LockProfiler.Site site = profiledSite;
+            profiledThread = null;
+            profiledSite = null;
+            doUnlock();
+            site.released(held);
+        }
+    }
+
+    private void doUnlock() {
+        if (!sync.isBiasable() || !sync.biasedUnlock())
+            sync.release(1);
+    }
+
+    /**
+     * Records the wait for a sampled outermost acquire that has
+     * just succeeded, and starts timing the hold.
+     */
+    private void startProfiledHold(LockProfiler.Site site, long start) {
+        long now = System.nanoTime();
+        site.recordWait(now - start);
+        profiledThread = Thread.currentThread();
+        profiledSite = site;
+        profiledHoldStart = now;
     }
 
     /**
@@ -503,6 +1243,103 @@ public class ReentrantLock implements Lock, java.io.Serializable {
         return sync.newCondition();
     }
 
+    /**
+     * Causes the current thread to wait until any of the given
+     * conditions associated with this lock is signalled or the thread
+     * is {@linkplain Thread#interrupt interrupted}, releasing this
+     * lock while waiting, as does {@link Condition#await()}.  The
+     * thread waits on all the conditions at once: a signal of any of
+     * them wakes it, and removes it from the others, so that it
+     * cannot consume another of their signals.  For example, a thread
+     * may wait until there is either work to do or a request to shut
+     * down:
+     *
+     * <pre> {@code
+     * lock.lock();
+     * try {
+     *   while (queue.isEmpty() && !shutdown)
+     *     lock.awaitAny(workAvailable, shutdownRequested);
+     *   // ...
+     * } finally {
+     *   lock.unlock();
+     * }}</pre>
+     *
+     * @param conditions the conditions
+     * @return the index in {@code conditions} of the condition that
+     *         was signalled
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws IllegalMonitorStateException if this lock is not held
+     * @throws IllegalArgumentException if no conditions are given, or
+     *         any is not associated with this lock
+     * @throws NullPointerException if the array or any condition is null
+     */
+    public int awaitAny(Condition... conditions) throws InterruptedException {
+        return sync.awaitAny(conditionObjects(conditions));
+    }
+
+    /**
+     * Causes the current thread to wait until any of the given
+     * conditions associated with this lock is signalled, as does
+     * {@link #awaitAny(Condition[])}, except that it is not
+     * responsive to interrupts, as for {@link
+     * Condition#awaitUninterruptibly}.
+     *
+     * @param conditions the conditions
+     * @return the index in {@code conditions} of the condition that
+     *         was signalled
+     * @throws IllegalMonitorStateException if this lock is not held
+     * @throws IllegalArgumentException if no conditions are given, or
+     *         any is not associated with this lock
+     * @throws NullPointerException if the array or any condition is null
+     */
+    public int awaitAnyUninterruptibly(Condition... conditions) {
+        return sync.awaitAnyUninterruptibly(conditionObjects(conditions));
+    }
+
+    /**
+     * Causes the current thread to wait until any of the given
+     * conditions associated with this lock is signalled, the thread
+     * is {@linkplain Thread#interrupt interrupted}, or the given
+     * waiting time elapses, as does {@link #awaitAny(Condition[])}
+     * and otherwise as for {@link Condition#await(long, TimeUnit)}.
+     *
+     * @param time the maximum time to wait
+     * @param unit the time unit of the {@code time} argument
+     * @param conditions the conditions
+     * @return the index in {@code conditions} of the condition that
+     *         was signalled, or {@code -1} if the waiting time elapsed
+     *         before any was signalled
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws IllegalMonitorStateException if this lock is not held
+     * @throws IllegalArgumentException if no conditions are given, or
+     *         any is not associated with this lock
+     * @throws NullPointerException if the array, the time unit or
+     *         any condition is null
+     */
+    public int awaitAny(long time, TimeUnit unit, Condition... conditions)
+        throws InterruptedException {
+        return sync.awaitAny(time, unit, conditionObjects(conditions));
+    }
+
+    /**
+     * Returns the given conditions as ConditionObjects, throwing
+     * IllegalArgumentException if any is not.
+     */
+    private static AbstractQueuedSynchronizer.ConditionObject[]
+        conditionObjects(Condition[] conditions) {
+        AbstractQueuedSynchronizer.ConditionObject[] cs =
+            new AbstractQueuedSynchronizer.ConditionObject[conditions.length];
+        for (int i = 0; i < cs.length; ++i) {
+            Condition c = conditions[i];
+            if (c == null)
+                throw new NullPointerException();
+            if (!(c instanceof AbstractQueuedSynchronizer.ConditionObject))
+                throw new IllegalArgumentException("not owner");
+            cs[i] = (AbstractQueuedSynchronizer.ConditionObject)c;
+        }
+        return cs;
+    }
+
     /**
      * Queries the number of holds on this lock by the current thread.
      *
@@ -605,6 +1442,15 @@ public class ReentrantLock implements Lock, java.io.Serializable {
         return sync instanceof FairSync;
     }
 
+    /**
+     * Returns {@code true} if this lock spins adaptively before blocking.
+     *
+     * @return {@code true} if this lock spins adaptively before blocking
+     */
+    public final boolean isSpinning() {
+        return sync.isSpinning();
+    }
+
     /**
      * Returns the thread that currently owns this lock, or
      * {@code null} if not owned. When this method is called by a
@@ -637,6 +1483,51 @@ public class ReentrantLock implements Lock, java.io.Serializable {
     }
 
 
+    /**
+     * Attaches a profiler that samples acquires of this lock, recording
+     * wait and hold times per acquiring call site, or detaches the
+     * current profiler if the argument is {@code null}.
+     *
+     * @param profiler the profiler, or {@code null} to stop profiling
+     * @see LockProfiler
+     */
+    public void setProfiler(LockProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    /**
+     * Returns the profiler attached to this lock, or {@code null} if none.
+     *
+     * @return the profiler, or {@code null} if none
+     */
+    public LockProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Enables collection of contention statistics for this lock,
+     * registering them with the platform {@link
+     * javax.management.MBeanServer MBeanServer} under the given
+     * name.  Only lock attempts that must wait are recorded, so
+     * uncontended locking is unaffected.
+     *
+     * @param name the name under which to register the statistics
+     * @return the statistics
+     * @throws NullPointerException if the name is null
+     * @throws IllegalArgumentException if the name is already in use
+     * @see AbstractQueuedSynchronizer#enableContentionMonitoring
+     */
+    public SynchronizerContentionMXBean enableContentionMonitoring(String name) {
+        return sync.enableContentionMonitoring(name);
+    }
+
+    /**
+     * Disables collection of contention statistics for this lock.
+     */
+    public void disableContentionMonitoring() {
+        sync.disableContentionMonitoring();
+    }
+
     /**
      * Queries whether the given thread is waiting to acquire this
      * lock. Note that because cancellations may occur at any time, a
@@ -0,0 +1,727 @@
+/*
+ * ORACLE PROPRIETARY/CONFIDENTIAL. Use is subject to license terms.
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ *
+ */
+
+/*
+ *
+ *
+ *
+ *
+ *
+ * Written by Doug Lea with assistance from members of JCP JSR-166
+ * Expert Group and released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A capability-based lock with three modes for controlling read/write
+ * access.  The state of a StampedLock consists of a version and mode.
+ * Lock acquisition methods return a stamp that represents and
+ * controls access with respect to a lock state; "try" versions of
+ * these methods may instead return the special value zero to
+ * represent failure to acquire access.  Lock release and conversion
+ * methods require stamps as arguments, and fail if they do not match
+ * the state of the lock.  The three modes are:
+ *
+ * <ul>
+ *
+ *  <li><b>Writing.</b> Method {@link #writeLock} possibly blocks
+ *   waiting for exclusive access, returning a stamp that can be used
+ *   in method {@link #unlockWrite} to release the lock.  Untimed and
+ *   timed versions of {@code tryWriteLock} are also provided.  When
+ *   the lock is held in write mode, no read locks may be obtained,
+ *   and all optimistic read validations will fail.
+ *
+ *  <li><b>Reading.</b> Method {@link #readLock} possibly blocks
+ *   waiting for non-exclusive access, returning a stamp that can be
+ *   used in method {@link #unlockRead} to release the lock.  Untimed
+ *   and timed versions of {@code tryReadLock} are also provided.
+ *
+ *  <li><b>Optimistic Reading.</b> Method {@link #tryOptimisticRead}
+ *   returns a non-zero stamp only if the lock is not currently held
+ *   in write mode.  Method {@link #validate} returns true if the lock
+ *   has not been acquired in write mode since obtaining a given
+ *   stamp.  This mode can be thought of as an extremely weak version
+ *   of a read-lock, that can be broken by a writer at any time.  The
+ *   use of optimistic mode for short read-only code segments often
+ *   reduces contention and improves throughput, as neither method
+ *   writes to shared memory.  However, its use is inherently fragile.
+ *   Optimistic read sections should only read fields and hold them in
+ *   local variables for later use after validation.  Fields read
+ *   while in optimistic mode may be wildly inconsistent, so usage
+ *   applies only when you are familiar enough with data
+ *   representations to check consistency and/or repeatedly invoke
+ *   method {@code validate()}.
+ *
+ * </ul>
+ *
+ * <p>This class also supports methods that conditionally provide
+ * conversions across the three modes.  For example, method {@link
+ * #tryConvertToWriteLock} attempts to "upgrade" a mode, returning a
+ * valid write stamp if (1) already in writing mode (2) in reading
+ * mode and there are no other readers or (3) in optimistic mode and
+ * the lock is available.  The forms of these methods are designed to
+ * help reduce some of the code bloat that otherwise occurs in
+ * retry-based designs.
+ *
+ * <p>StampedLocks are designed for use as internal utilities in the
+ * development of thread-safe components.  Their use relies on
+ * knowledge of the internal properties of the data, objects, and
+ * methods they are protecting.  They are not reentrant, so locked
+ * bodies should not call other unknown methods that may try to
+ * re-acquire locks (although you may pass a stamp to other methods
+ * that can use or convert it).  In particular, as with the nonfair
+ * {@link ReentrantReadWriteLock}, a thread trying to acquire the read
+ * lock may block behind a writer that is first in the queue, so a
+ * thread already holding a read lock must not try to acquire another.
+ * Stamps are not cryptographically secure (i.e., a valid stamp may
+ * be guessable).  The version held in stamps has 47 bits and
+ * advances with each write lock, so stamp values recycle after
+ * 2<sup>47</sup> write locks, which at a hundred million write locks
+ * per second takes a little over two weeks.  A stamp held without
+ * use or validation for longer than this may fail to validate
+ * correctly.
+ *
+ * <p>Threads that block in any mode wait in the queue of an {@link
+ * AbstractQueuedLongSynchronizer}, whose state holds both the version
+ * and the mode, so blocked readers and writers are ordered, timed,
+ * interrupted and monitored in the same way as those of other
+ * synchronizers in this package.  Unlike {@link Lock}s, StampedLocks
+ * have no notion of ownership: locks acquired in one thread can be
+ * released or converted in another.  They do not support
+ * conditions.
+ *
+ * <p>Serialization of this class behaves in the same way as built-in
+ * locks: a deserialized lock is in the unlocked state, regardless of
+ * its state when serialized.
+ *
+ * <p><b>Sample Usage.</b> The following illustrates some usage idioms
+ * in a class that maintains simple two-dimensional points.
+ *
+ * <pre> {@code
+ * class Point {
+ *   private volatile double x, y; // see validate
+ *   private final StampedLock sl = new StampedLock();
+ *
+ *   void move(double deltaX, double deltaY) { // an exclusively locked method
+ *     long stamp = sl.writeLock();
+ *     try {
+ *       x += deltaX;
+ *       y += deltaY;
+ *     } finally {
+ *       sl.unlockWrite(stamp);
+ *     }
+ *   }
+ *
+ *   double distanceFromOrigin() { // A read-only method
+ *     long stamp = sl.tryOptimisticRead();
+ *     double currentX = x, currentY = y;
+ *     if (!sl.validate(stamp)) {
+ *       stamp = sl.readLock();
+ *       try {
+ *         currentX = x;
+ *         currentY = y;
+ *       } finally {
+ *         sl.unlockRead(stamp);
+ *       }
+ *     }
+ *     return Math.sqrt(currentX * currentX + currentY * currentY);
+ *   }
+ *
+ *   void moveIfAtOrigin(double newX, double newY) { // upgrade
+ *     // Could instead start with optimistic, not read mode
+ *     long stamp = sl.readLock();
+ *     try {
+ *       while (x == 0.0 && y == 0.0) {
+ *         long ws = sl.tryConvertToWriteLock(stamp);
+ *         if (ws != 0L) {
+ *           stamp = ws;
+ *           x = newX;
+ *           y = newY;
+ *           break;
+ *         }
+ *         else {
+ *           sl.unlockRead(stamp);
+ *           stamp = sl.writeLock();
+ *         }
+ *       }
+ *     } finally {
+ *       sl.unlock(stamp);
+ *     }
+ *   }
+ * }}</pre>
+ *
+ * @author Doug Lea
+ */
+public class StampedLock implements java.io.Serializable {
+    private static final long serialVersionUID = -6001602636862214147L;
+
+    /*
+     * The state holds a read count in its low bits, a write bit
+     * above them, and a version in the remaining bits, incremented
+     * (by adding WBIT, which carries out of the write bit) each time
+     * the write lock is released.  A stamp is the state at the time
+     * it was obtained, the mode bits of which record the mode it was
+     * obtained in: both zero for optimistic stamps, the write bit for
+     * write stamps, and a nonzero read count for read stamps.  So a
+     * stamp is valid, or an optimistic read validates, if its version
+     * and write bit match those of the current state.  The version
+     * starts at ORIGIN, not zero, and skips zero on wraparound, so
+     * that zero is never a valid stamp.
+     *
+     * Blocking relies entirely on AbstractQueuedLongSynchronizer:
+     * the write lock is acquired in exclusive mode, the read lock in
+     * shared mode, and releases wake queued threads as usual.  As in
+     * the nonfair ReentrantReadWriteLock, readers block if a writer
+     * appears to be first in the queue, so writers do not starve;
+     * barging trylocks ignore the queue.  Conversions never block,
+     * so they operate directly on state; a conversion from write to
+     * read mode wakes queued readers with releaseShared(0), which
+     * changes no state.
+     *
+     * The read count has 16 bits, so at most 65535 read locks may be
+     * held at once, which should be plenty in practice.
+     */
+
+    private static final int LG_READERS = 16;
+
+    // Values for lock state and stamp operations
+    private static final long RUNIT = 1L;
+    private static final long WBIT  = 1L << LG_READERS;
+    private static final long RBITS = WBIT - 1L;
+    private static final long ABITS = RBITS | WBIT;
+    private static final long SBITS = ~RBITS; // note overlap with ABITS
+
+    // Initial value for lock state; avoid failure value zero
+    private static final long ORIGIN = WBIT << 1;
+
+    /** Performs all synchronization mechanics */
+    private final Sync sync;
+
+    /**
+     * Creates a new lock, initially in unlocked state.
+     */
+    public StampedLock() {
+        sync = new Sync();
+    }
+
+    /**
+     * Synchronization control for StampedLock.  Uses AQLS state to
+     * represent the version and mode, as described above.
+     */
+    private static final class Sync extends AbstractQueuedLongSynchronizer {
+        private static final long serialVersionUID = 4096375287342614375L;
+
+        Sync() { setState(ORIGIN); }
+
+        /** Returns the state after releasing the write lock held in s */
+        static long next(long s) {
+            return ((s += WBIT) == 0L) ? ORIGIN : s;
+        }
+
+        protected final boolean tryAcquire(long unused) {
+            long s = getState();
+            return (s & ABITS) == 0L && compareAndSetState(s, s + WBIT);
+        }
+
+        /**
+         * Releases the write lock, if the given stamp matches the
+         * current state, incrementing the version.
+         */
+        protected final boolean tryRelease(long stamp) {
+            long s = getState();
+            if (s != stamp || (stamp & WBIT) == 0L)
+                throw new IllegalMonitorStateException();
+            setState(next(s));
+            return true;
+        }
+
+        /**
+         * Acquires a read hold, unless the lock is held in write mode
+         * or, if the argument is nonzero, a writer is first in the
+         * queue.  Calls with zero argument are used by barging
+         * trylocks.
+         */
+        protected final long tryAcquireShared(long checkQueue) {
+            for (;;) {
+                long s = getState();
+                if ((s & WBIT) != 0L ||
+                    (checkQueue != 0L && apparentlyFirstQueuedIsExclusive()))
+                    return -1L;
+                if ((s & RBITS) == RBITS)
+                    throw new Error("Maximum lock count exceeded");
+                if (compareAndSetState(s, s + RUNIT))
+                    return 1L;
+            }
+        }
+
+        /**
+         * Releases a read hold, if the given stamp matches the
+         * current state.  If the stamp is zero, releases nothing, but
+         * propagates wakeups to readers after a conversion.
+         */
+        protected final boolean tryReleaseShared(long stamp) {
+            if (stamp == 0L)
+                return true;
+            for (;;) {
+                long s = getState();
+                if ((stamp & SBITS) != (s & SBITS) ||
+                    (stamp & RBITS) == 0L || (s & RBITS) == 0L)
+                    throw new IllegalMonitorStateException();
+                if (compareAndSetState(s, s - RUNIT))
+                    return (s & RBITS) == RUNIT;
+            }
+        }
+
+        final boolean validate(long stamp) {
+            return (stamp & SBITS) == (getStateForValidation() & SBITS);
+        }
+
+        final boolean casState(long expect, long update) {
+            return compareAndSetState(expect, update);
+        }
+
+        final long getCount() { return getState(); }
+
+        /**
+         * Reconstitutes the instance from a stream (that is, deserializes it).
+         */
+        private void readObject(java.io.ObjectInputStream s)
+            throws java.io.IOException, ClassNotFoundException {
+            s.defaultReadObject();
+            setState(ORIGIN); // reset to unlocked state
+        }
+    }
+
+    /**
+     * Exclusively acquires the lock, blocking if necessary
+     * until available.
+     *
+     * @return a stamp that can be used to unlock or convert mode
+     */
+    public long writeLock() {
+        sync.acquire(1L);
+        return sync.getCount();
+    }
+
+    /**
+     * Exclusively acquires the lock if it is immediately available.
+     *
+     * @return a stamp that can be used to unlock or convert mode,
+     * or zero if the lock is not available
+     */
+    public long tryWriteLock() {
+        long s = sync.getCount(), next;
+        return ((s & ABITS) == 0L && sync.casState(s, next = s + WBIT)) ?
+            next : 0L;
+    }
+
+    /**
+     * Exclusively acquires the lock if it is available within the
+     * given time and the current thread has not been interrupted.
+     * Behavior under timeout and interruption matches that specified
+     * for method {@link Lock#tryLock(long,TimeUnit)}.
+     *
+     * @param time the maximum time to wait for the lock
+     * @param unit the time unit of the {@code time} argument
+     * @return a stamp that can be used to unlock or convert mode,
+     * or zero if the lock is not available
+     * @throws InterruptedException if the current thread is interrupted
+     * before acquiring the lock
+     */
+    public long tryWriteLock(long time, TimeUnit unit)
+        throws InterruptedException {
+        return sync.tryAcquireNanos(1L, unit.toNanos(time)) ?
+            sync.getCount() : 0L;
+    }
+
+    /**
+     * Exclusively acquires the lock, blocking if necessary
+     * until available or the current thread is interrupted.
+     * Behavior under interruption matches that specified
+     * for method {@link Lock#lockInterruptibly()}.
+     *
+     * @return a stamp that can be used to unlock or convert mode
+     * @throws InterruptedException if the current thread is interrupted
+     * before acquiring the lock
+     */
+    public long writeLockInterruptibly() throws InterruptedException {
+        sync.acquireInterruptibly(1L);
+        return sync.getCount();
+    }
+
+    /**
+     * Non-exclusively acquires the lock, blocking if necessary
+     * until available.
+     *
+     * @return a stamp that can be used to unlock or convert mode
+     */
+    public long readLock() {
+        sync.acquireShared(1L);
+        // The version cannot change while read-locked
+        return sync.getCount();
+    }
+
+    /**
+     * Non-exclusively acquires the lock if it is immediately available.
+     *
+     * @return a stamp that can be used to unlock or convert mode,
+     * or zero if the lock is not available
+     */
+    public long tryReadLock() {
+        return (sync.tryAcquireShared(0L) >= 0L) ? sync.getCount() : 0L;
+    }
+
+    /**
+     * Non-exclusively acquires the lock if it is available within the
+     * given time and the current thread has not been interrupted.
+     * Behavior under timeout and interruption matches that specified
+     * for method {@link Lock#tryLock(long,TimeUnit)}.
+     *
+     * @param time the maximum time to wait for the lock
+     * @param unit the time unit of the {@code time} argument
+     * @return a stamp that can be used to unlock or convert mode,
+     * or zero if the lock is not available
+     * @throws InterruptedException if the current thread is interrupted
+     * before acquiring the lock
+     */
+    public long tryReadLock(long time, TimeUnit unit)
+        throws InterruptedException {
+        return sync.tryAcquireSharedNanos(1L, unit.toNanos(time)) ?
+            sync.getCount() : 0L;
+    }
+
+    /**
+     * Non-exclusively acquires the lock, blocking if necessary
+     * until available or the current thread is interrupted.
+     * Behavior under interruption matches that specified
+     * for method {@link Lock#lockInterruptibly()}.
+     *
+     * @return a stamp that can be used to unlock or convert mode
+     * @throws InterruptedException if the current thread is interrupted
+     * before acquiring the lock
+     */
+    public long readLockInterruptibly() throws InterruptedException {
+        sync.acquireSharedInterruptibly(1L);
+        return sync.getCount();
+    }
+
+    /**
+     * Returns a stamp that can later be validated, or zero
+     * if exclusively locked.
+     *
+     * @return a stamp, or zero if exclusively locked
+     */
+    public long tryOptimisticRead() {
+        long s;
+        return (((s = sync.getCount()) & WBIT) == 0L) ? (s & SBITS) : 0L;
+    }
+
+    /**
+     * Returns true if the lock has not been exclusively acquired
+     * since issuance of the given stamp. Always returns false if the
+     * stamp is zero. Always returns true if the stamp represents a
+     * currently held lock. Invoking this method with a value not
+     * obtained from {@link #tryOptimisticRead} or a locking method
+     * for this lock has no defined effect or result.
+     *
+     * <p>This method reads the lock state as a volatile read, so
+     * only reads of volatile fields performed before it are ordered
+     * before that read.  Under the Java memory model, plain reads
+     * performed before this method may be reordered after it, in
+     * which case a return value of true need not mean that the
+     * values they obtained were consistent.
+     *
+     * @param stamp a stamp
+     * @return {@code true} if the lock has not been exclusively acquired
+     * since issuance of the given stamp; else false
+     */
+    public boolean validate(long stamp) {
+        return sync.validate(stamp);
+    }
+
+    /**
+     * If the lock state matches the given stamp, releases the
+     * exclusive lock.
+     *
+     * @param stamp a stamp returned by a write-lock operation
+     * @throws IllegalMonitorStateException if the stamp does
+     * not match the current state of this lock
+     */
+    public void unlockWrite(long stamp) {
+        sync.release(stamp);
+    }
+
+    /**
+     * If the lock state matches the given stamp, releases the
+     * non-exclusive lock.
+     *
+     * @param stamp a stamp returned by a read-lock operation
+     * @throws IllegalMonitorStateException if the stamp does
+     * not match the current state of this lock
+     */
+    public void unlockRead(long stamp) {
+        if (stamp == 0L)
+            throw new IllegalMonitorStateException();
+        sync.releaseShared(stamp);
+    }
+
+    /**
+     * If the lock state matches the given stamp, releases the
+     * corresponding mode of the lock.
+     *
+     * @param stamp a stamp returned by a lock operation
+     * @throws IllegalMonitorStateException if the stamp does
+     * not match the current state of this lock
+     */
+    public void unlock(long stamp) {
+        if ((stamp & WBIT) != 0L)
+            unlockWrite(stamp);
+        else
+            unlockRead(stamp);
+    }
+
+    /**
+     * If the lock state matches the given stamp, performs one of
+     * the following actions. If the stamp represents holding a write
+     * lock, returns it.  Or, if a read lock, if the write lock is
+     * available, releases the read lock and returns a write stamp.
+     * Or, if an optimistic read, returns a write stamp only if
+     * immediately available. This method returns zero in all other
+     * cases.
+     *
+     * @param stamp a stamp
+     * @return a valid write stamp, or zero on failure
+     */
+    public long tryConvertToWriteLock(long stamp) {
+        long a = stamp & ABITS, s, next;
+        while (((s = sync.getCount()) & SBITS) == (stamp & SBITS)) {
+            long m = s & ABITS;
+            if (m == 0L) {
+                if (a != 0L)
+                    break;
+                if (sync.casState(s, next = s + WBIT))
+                    return next;
+            }
+            else if (m == WBIT) {
+                if (a != m)
+                    break;
+                return stamp;
+            }
+            else if (m == RUNIT && a != 0L) {
+                if (sync.casState(s, next = s - RUNIT + WBIT))
+                    return next;
+            }
+            else
+                break;
+        }
+        return 0L;
+    }
+
+    /**
+     * If the lock state matches the given stamp, performs one of
+     * the following actions. If the stamp represents holding a write
+     * lock, releases it and obtains a read lock.  Or, if a read lock,
+     * returns it. Or, if an optimistic read, acquires a read lock and
+     * returns a read stamp only if immediately available. This method
+     * returns zero in all other cases.
+     *
+     * @param stamp a stamp
+     * @return a valid read stamp, or zero on failure
+     */
+    public long tryConvertToReadLock(long stamp) {
+        long a = stamp & ABITS, s, next;
+        while (((s = sync.getCount()) & SBITS) == (stamp & SBITS)) {
+            long m = s & ABITS;
+            if (m == 0L) {
+                if (a != 0L)
+                    break;
+                if (sync.casState(s, next = s + RUNIT))
+                    return next;
+            }
+            else if (m == WBIT) {
+                if (a != m)
+                    break;
+                // No other thread can change state while write-locked
+                sync.setState(next = Sync.next(s) + RUNIT);
+                sync.releaseShared(0L);
+                return next;
+            }
+            else if (a != 0L && a < WBIT)
+                return stamp;
+            else if (m == RBITS)
+                throw new Error("Maximum lock count exceeded");
+            else if (a == 0L) {
+                if (sync.casState(s, next = s + RUNIT))
+                    return next;
+            }
+            else
+                break;
+        }
+        return 0L;
+    }
+
+    /**
+     * If the lock state matches the given stamp then, if the stamp
+     * represents holding a lock, releases it and returns an
+     * observation stamp.  Or, if an optimistic read, returns it if
+     * validated. This method returns zero in all other cases, and so
+     * may be useful as a form of "tryUnlock".
+     *
+     * @param stamp a stamp
+     * @return a valid optimistic read stamp, or zero on failure
+     */
+    public long tryConvertToOptimisticRead(long stamp) {
+        long a = stamp & ABITS, s;
+        while (((s = sync.getCount()) & SBITS) == (stamp & SBITS)) {
+            long m = s & ABITS;
+            if (m == 0L) {
+                if (a != 0L)
+                    break;
+                return s;
+            }
+            else if (m == WBIT) {
+                if (a != m)
+                    break;
+                sync.release(s);
+                return Sync.next(s);
+            }
+            else if (a == 0L || a >= WBIT)
+                break;
+            else if (m != 0L) {
+                sync.releaseShared(s);
+                return s & SBITS;
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Releases the write lock if it is held, without requiring a
+     * stamp value. This method may be useful for recovery after
+     * errors.
+     *
+     * @return {@code true} if the lock was held, else false
+     */
+    public boolean tryUnlockWrite() {
+        long s;
+        if (((s = sync.getCount()) & WBIT) == 0L)
+            return false;
+        sync.release(s);
+        return true;
+    }
+
+    /**
+     * Releases one hold of the read lock if it is held, without
+     * requiring a stamp value. This method may be useful for recovery
+     * after errors.
+     *
+     * @return {@code true} if the read lock was held, else false
+     */
+    public boolean tryUnlockRead() {
+        long s;
+        while (((s = sync.getCount()) & RBITS) != 0L) {
+            try {
+                sync.releaseShared(s);
+                return true;
+            } catch (IllegalMonitorStateException retry) {
+                // lost a race with another reader
+            }
+        }
+        return false;
+    }
+
+    // status monitoring methods
+
+    /**
+     * Returns {@code true} if the lock is currently held exclusively.
+     *
+     * @return {@code true} if the lock is currently held exclusively
+     */
+    public boolean isWriteLocked() {
+        return (sync.getCount() & WBIT) != 0L;
+    }
+
+    /**
+     * Returns {@code true} if the lock is currently held non-exclusively.
+     *
+     * @return {@code true} if the lock is currently held non-exclusively
+     */
+    public boolean isReadLocked() {
+        return (sync.getCount() & RBITS) != 0L;
+    }
+
+    /**
+     * Queries the number of read locks held for this lock. This
+     * method is designed for use in monitoring system state, not for
+     * synchronization control.
+     * @return the number of read locks held
+     */
+    public int getReadLockCount() {
+        return (int)(sync.getCount() & RBITS);
+    }
+
+    /**
+     * Queries whether any threads are waiting to acquire this lock
+     * in either mode. This method is designed primarily for use in
+     * monitoring of the system state.
+     *
+     * @return {@code true} if there may be other threads waiting to
+     *         acquire the lock
+     */
+    public final boolean hasQueuedThreads() {
+        return sync.hasQueuedThreads();
+    }
+
+    /**
+     * Returns an estimate of the number of threads waiting to acquire
+     * this lock in either mode.  This method is designed for use in
+     * monitoring of the system state, not for synchronization control.
+     *
+     * @return the estimated number of threads waiting for this lock
+     */
+    public final int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    /**
+     * Returns a string identifying this lock, as well as its lock
+     * state.  The state, in brackets, includes the String {@code
+     * "Unlocked"} or the String {@code "Write-locked"} or the String
+     * {@code "Read-locks:"} followed by the current number of
+     * read-locks held.
+     *
+     * @return a string identifying this lock, as well as its lock state
+     */
+    public String toString() {
+        long s = sync.getCount();
+        return super.toString() +
+            (((s & ABITS) == 0L) ? "[Unlocked]" :
+             ((s & WBIT) != 0L) ? "[Write-locked]" :
+             "[Read-locks:" + (s & RBITS) + "]");
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+import java.util.ArrayList;
+
+/**
+ * A division of the 64-bit synchronization state of an {@link
+ * AbstractQueuedLongSynchronizer} into named bit fields, each holding
+ * a non-negative count.  Fields are allocated from the low-order bit
+ * upwards by {@link #addField}, normally in static initializers.
+ * Each {@link Field} encodes and decodes its value within a state,
+ * checking that updates neither overflow its width nor go negative,
+ * and so never carry into or borrow from its neighbors.  Atomic
+ * updates of the state of a synchronizer are then performed by its
+ * methods {@link AbstractQueuedLongSynchronizer#getAndAddField
+ * getAndAddField}, {@link AbstractQueuedLongSynchronizer#getAndAddFields
+ * getAndAddFields}, {@link AbstractQueuedLongSynchronizer#getAndAddFieldIf
+ * getAndAddFieldIf} and {@link
+ * AbstractQueuedLongSynchronizer#compareAndSetField compareAndSetField},
+ * each of which contains the retry loop that would otherwise be
+ * written by hand.
+ *
+ * <p>A field's shift, mask and maximum are computed once, when it is
+ * added, so encoding and decoding take the same few shift and mask
+ * operations as hand-written code, plus reads of the field's final
+ * fields, which remain invariant across retry loops.
+ *
+ * <p>An update that would take a field past its maximum throws
+ * {@link Error}, as do the lock classes of this package when their
+ * hold counts would overflow, and so does an update that would make
+ * a field negative.  Synchronizers that must instead report an
+ * unmatched release should check the field before updating it.
+ *
+ * <p><b>Sample Usage.</b> Here is a non-reentrant read/write lock
+ * that keeps a one-bit writer field and a 32-bit reader count:
+ *
+ * <pre> {@code
+ * class SimpleReadWriteLock {
+ *   private static final StateLayout LAYOUT = new StateLayout();
+ *   static final StateLayout.Field WRITER  = LAYOUT.addField("writer", 1);
+ *   static final StateLayout.Field READERS = LAYOUT.addField("readers", 32);
+ *
+ *   private static class Sync extends AbstractQueuedLongSynchronizer {
+ *     protected boolean tryAcquire(long unused) {
+ *       return compareAndSetState(0L, WRITER.getUnit());
+ *     }
+ *
+ *     protected boolean tryRelease(long unused) {
+ *       if (!compareAndSetField(WRITER, 1L, 0L))
+ *         throw new IllegalMonitorStateException();
+ *       return true;
+ *     }
+ *
+ *     protected long tryAcquireShared(long unused) {
+ *       // Adds a reader only if there is no writer
+ *       long s = getAndAddFieldIf(WRITER, 0L, READERS, 1L);
+ *       return WRITER.get(s) == 0L ? 1L : -1L;
+ *     }
+ *
+ *     protected boolean tryReleaseShared(long unused) {
+ *       if (READERS.get(getState()) == 0L)
+ *         throw new IllegalMonitorStateException();
+ *       // Writers may proceed once the last reader leaves
+ *       return READERS.get(getAndAddField(READERS, -1L)) == 1L;
+ *     }
+ *
+ *     String describe() { return LAYOUT.toString(getState()); }
+ *   }
+ *
+ *   private final Sync sync = new Sync();
+ *   public void readLock()    { sync.acquireShared(1L); }
+ *   public void readUnlock()  { sync.releaseShared(1L); }
+ *   public void writeLock()   { sync.acquire(1L); }
+ *   public void writeUnlock() { sync.release(1L); }
+ * }}</pre>
+ *
+ * <p>And here is a semaphore that also counts the permits currently
+ * held, for monitoring, moving permits between its two fields in a
+ * single atomic update:
+ *
+ * <pre> {@code
+ * class MonitoredSemaphore {
+ *   private static final StateLayout LAYOUT = new StateLayout();
+ *   static final StateLayout.Field AVAILABLE = LAYOUT.addField("available", 31);
+ *   static final StateLayout.Field HELD      = LAYOUT.addField("held", 31);
+ *
+ *   private static class Sync extends AbstractQueuedLongSynchronizer {
+ *     Sync(int permits) { setState(AVAILABLE.set(0L, permits)); }
+ *
+ *     protected long tryAcquireShared(long n) {
+ *       for (;;) {
+ *         long s = getState();
+ *         if (!AVAILABLE.canAdd(s, -n))
+ *           return -1L;
+ *         if (compareAndSetState(s, HELD.add(AVAILABLE.add(s, -n), n)))
+ *           return AVAILABLE.get(s) - n;
+ *       }
+ *     }
+ *
+ *     protected boolean tryReleaseShared(long n) {
+ *       getAndAddFields(HELD, -n, AVAILABLE, n);
+ *       return true;
+ *     }
+ *
+ *     long held() { return HELD.get(getState()); }
+ *   }
+ * }}</pre>
+ */
+public final class StateLayout {
+
+    /** The fields added so far, in order of increasing shift */
+    private final ArrayList<Field> fields = new ArrayList<Field>();
+
+    /** The number of bits allocated so far */
+    private int bits;
+
+    /**
+     * Creates a layout with no fields.
+     */
+    public StateLayout() {
+    }
+
+    /**
+     * Adds a field occupying the given number of bits immediately
+     * above those already allocated.
+     *
+     * @param name the name of the field, used only in string
+     *        representations
+     * @param width the number of bits of the field, from 1 to 63
+     * @return the field
+     * @throws IllegalArgumentException if the width is out of range,
+     *         or the field does not fit in the bits remaining
+     * @throws NullPointerException if the name is null
+     */
+    public synchronized Field addField(String name, int width) {
+        if (name == null)
+            throw new NullPointerException();
+        if (width < 1 || width > 63)
+            throw new IllegalArgumentException("width: " + width);
+        if (width > 64 - bits)
+            throw new IllegalArgumentException(
+                "field " + name + " does not fit in the " +
+                (64 - bits) + " remaining bits");
+        Field f = new Field(name, bits, width);
+        bits += width;
+        fields.add(f);
+        return f;
+    }
+
+    /**
+     * Returns the number of bits allocated to fields so far.
+     *
+     * @return the number of bits allocated
+     */
+    public synchronized int getBitsUsed() {
+        return bits;
+    }
+
+    /**
+     * Returns a string showing the value of each field in the given
+     * state, in the form {@code [name=value, ...]}.
+     *
+     * @param state a state
+     * @return a string representation of the state
+     */
+    public synchronized String toString(long state) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < fields.size(); ++i) {
+            Field f = fields.get(i);
+            if (i > 0)
+                sb.append(", ");
+            sb.append(f.name).append('=').append(f.get(state));
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * A named bit field of a {@link StateLayout}, holding a value from
+     * zero to {@link #getMaximum}.  Methods of this class compute
+     * states; they do not themselves read or update the state of any
+     * synchronizer.
+     */
+    public static final class Field {
+        private final String name;
+        private final int shift;
+        private final int width;
+        private final long unit;
+        private final long max;
+        private final long mask;
+
+        Field(String name, int shift, int width) {
+            this.name = name;
+            this.shift = shift;
+            this.width = width;
+            this.unit = 1L << shift;
+            this.max = (1L << width) - 1L;
+            this.mask = max << shift;
+        }
+
+        /**
+         * Returns the name of this field.
+         *
+         * @return the name
+         */
+        public String getName() { return name; }
+
+        /**
+         * Returns the position of the lowest bit of this field.
+         *
+         * @return the shift
+         */
+        public int getShift() { return shift; }
+
+        /**
+         * Returns the number of bits of this field.
+         *
+         * @return the width
+         */
+        public int getWidth() { return width; }
+
+        /**
+         * Returns the state in which this field is one and all others
+         * are zero, which is the amount by which a state changes when
+         * this field is incremented.
+         *
+         * @return the unit
+         */
+        public long getUnit() { return unit; }
+
+        /**
+         * Returns the largest value this field can hold.
+         *
+         * @return the maximum
+         */
+        public long getMaximum() { return max; }
+
+        /**
+         * Returns the mask selecting the bits of this field in a state.
+         *
+         * @return the mask
+         */
+        public long getMask() { return mask; }
+
+        /**
+         * Returns the value of this field in the given state.
+         *
+         * @param state a state
+         * @return the value of this field
+         */
+        public long get(long state) {
+            return (state & mask) >>> shift;
+        }
+
+        /**
+         * Returns the given state with this field set to the given
+         * value and all other fields unchanged.
+         *
+         * @param state a state
+         * @param value the new value of this field
+         * @return the updated state
+         * @throws IllegalArgumentException if the value is negative or
+         *         greater than the maximum
+         */
+        public long set(long state, long value) {
+            if (value < 0L || value > max)
+                throw new IllegalArgumentException(
+                    "value " + value + " out of range for field " + name);
+            return (state & ~mask) | (value << shift);
+        }
+
+        /**
+         * Returns the given state with the given amount added to this
+         * field and all other fields unchanged.
+         *
+         * @param state a state
+         * @param delta the amount to add, which may be negative
+         * @return the updated state
+         * @throws Error if the result would exceed the maximum or be
+         *         negative
+         */
+        public long add(long state, long delta) {
+            long v = ((state & mask) >>> shift) + delta;
+            if (v > max)
+                throw new Error("Maximum count exceeded in field " + name);
+            if (v < 0L)
+                throw new Error("Negative count in field " + name);
+            // Exact modulo 2^64 even if delta * unit overflows
+            return state + delta * unit;
+        }
+
+        /**
+         * Returns {@code true} if adding the given amount to this field
+         * of the given state would neither exceed the maximum nor make
+         * it negative.
+         *
+         * @param state a state
+         * @param delta the amount to add, which may be negative
+         * @return {@code true} if {@link #add} would succeed
+         */
+        public boolean canAdd(long state, long delta) {
+            long v = ((state & mask) >>> shift) + delta;
+            return v >= 0L && v <= max;
+        }
+
+        /**
+         * Returns a string identifying this field, including its name
+         * and bit positions.
+         *
+         * @return a string identifying this field
+         */
+        public String toString() {
+            return name + "[" + shift + ".." + (shift + width - 1) + "]";
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+/**
+ * The management interface for the contention statistics of a
+ * synchronizer based on {@link AbstractQueuedSynchronizer} or {@link
+ * AbstractQueuedLongSynchronizer}.  Statistics are collected only
+ * once enabled using {@link
+ * AbstractQueuedSynchronizer#enableContentionMonitoring}, in which
+ * case an instance of this interface is registered with the platform
+ * {@link javax.management.MBeanServer MBeanServer} under an {@link
+ * javax.management.ObjectName ObjectName} of the form:
+ *
+ * <blockquote>
+ *   {@code java.util.concurrent.locks:type=Synchronizer,name=}<i>quoted name</i>
+ * </blockquote>
+ *
+ * <p>Only acquires that fail their initial attempt and so enter the
+ * wait queue are recorded, which keeps uncontended acquires and
+ * releases free of any additional writes.  All values are
+ * best-effort snapshots maintained without locking, and are intended
+ * for monitoring and tuning, not for synchronization control.
+ *
+ * <p>Histograms are returned as arrays in which element <i>i</i>
+ * counts samples <i>v</i> with 2<sup><i>i</i>-1</sup> &le; <i>v</i>
+ * &lt; 2<sup><i>i</i></sup>; element zero counts samples equal to
+ * zero, and the last element also counts all larger samples.
+ */
+public interface SynchronizerContentionMXBean {
+
+    /**
+     * Returns the name under which this synchronizer is registered.
+     *
+     * @return the name
+     */
+    String getName();
+
+    /**
+     * Returns the number of acquires that succeeded after waiting
+     * in the queue.
+     *
+     * @return the number of contended acquires
+     */
+    long getContendedAcquireCount();
+
+    /**
+     * Returns the number of times a queued thread blocked.
+     *
+     * @return the number of parks
+     */
+    long getParkCount();
+
+    /**
+     * Returns the number of queued acquires that were abandoned,
+     * whether due to timeout, interrupt, or an exception.
+     *
+     * @return the number of cancelled acquires
+     */
+    long getCancelledAcquireCount();
+
+    /**
+     * Returns the number of queued timed acquires that timed out.
+     * These are also included in {@link #getCancelledAcquireCount}.
+     *
+     * @return the number of timeouts
+     */
+    long getTimeoutCount();
+
+    /**
+     * Returns the number of threads currently waiting in the queue,
+     * counting only those that started waiting after monitoring was
+     * enabled.
+     *
+     * @return the number of queued threads
+     */
+    int getQueuedCount();
+
+    /**
+     * Returns a histogram of the times, in nanoseconds, that
+     * contended acquires spent waiting in the queue.
+     *
+     * @return the wait time histogram
+     */
+    long[] getWaitTimeHistogram();
+
+    /**
+     * Returns a histogram of the number of threads already waiting
+     * when each contended acquire entered the queue.
+     *
+     * @return the queue depth histogram
+     */
+    long[] getQueueDepthHistogram();
+
+    /**
+     * Resets all counts and histograms to zero. The number of
+     * currently queued threads is not affected.
+     */
+    void reset();
+}
@@ -0,0 +1,194 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A FIFO spin lock in which each acquiring thread takes a ticket,
+ * and then waits until the ticket is served.  Acquiring and
+ * releasing each involve only a single atomic update of a shared
+ * counter, but all waiting threads poll the same location, so each
+ * release causes cache traffic proportional to the number of
+ * waiting threads.  Ticket locks therefore suit locks with few
+ * waiting threads, for which they are fair at very low cost.
+ *
+ * <p>A thread giving up waiting, upon interrupt or timeout, records
+ * its ticket as abandoned, and the ticket is skipped when served.
+ * So that it always can, a thread acquiring interruptibly or with a
+ * timeout first reserves one of 64 slots, selected by its ticket,
+ * in which to record it.  While 64 or more tickets are outstanding,
+ * that slot may still be in use, in which case the thread waits for
+ * it to be freed before taking its ticket, giving up upon interrupt
+ * or timeout as it would while waiting for its turn.
+ *
+ * <p>Waiting threads spin rather than block, and this lock is not
+ * reentrant and does not support conditions; see {@link
+ * #newCondition}.  The {@link #tryLock()} method acquires only if no
+ * tickets are outstanding, so never barges ahead of waiting threads.
+ */
+public class TicketLock extends AbstractSpinLock {
+
+    /** Number of slots for abandoned tickets; a power of two */
+    static final int ABANDONED_SLOTS = 64;
+
+    /** The next ticket to issue */
+    private volatile int next;
+
+    /** The ticket now served */
+    private volatile int serving;
+
+    /**
+     * Reserved and abandoned tickets, each held in the slot indexed
+     * by its low bits, or zero if none.  A thread that may abandon
+     * its ticket reserves the slot, as (ticket | RESERVED_BIT), by
+     * CAS from zero before taking the ticket, and either clears it
+     * upon acquiring or replaces it by (ticket | ABANDONED_BIT).  An
+     * abandoned slot is cleared, using CAS, either by the releasing
+     * thread that skips its ticket, or by the abandoning thread if it
+     * sees its ticket served; each checks for the other after its
+     * own write, so at least one of them notices and exactly one
+     * clears the slot.
+     */
+    private final AtomicLongArray abandoned =
+        new AtomicLongArray(ABANDONED_SLOTS);
+
+    private static final long ABANDONED_BIT = 1L << 32;
+    private static final long RESERVED_BIT  = 1L << 33;
+
+    private static final AtomicIntegerFieldUpdater<TicketLock> nextUpdater =
+        AtomicIntegerFieldUpdater.newUpdater(TicketLock.class, "next");
+
+    /**
+     * Creates a new {@code TicketLock}.
+     */
+    public TicketLock() {
+    }
+
+    private static long abandonedKey(int ticket) {
+        return (ticket & 0xffffffffL) | ABANDONED_BIT;
+    }
+
+    private static long reservedKey(int ticket) {
+        return (ticket & 0xffffffffL) | RESERVED_BIT;
+    }
+
+    final boolean acquire(boolean interruptible, boolean timed,
+                          long deadline) {
+        int spins = 0;
+        int t;
+        if (!interruptible && !timed)
+            t = nextUpdater.getAndIncrement(this);
+        else {
+            // Reserve the slot of the next ticket, then take the ticket
+            for (;;) {
+                t = next;
+                int i = t & (ABANDONED_SLOTS - 1);
+                if (abandoned.get(i) == 0L &&
+                    abandoned.compareAndSet(i, 0L, reservedKey(t))) {
+                    if (nextUpdater.compareAndSet(this, t, t + 1))
+                        break;
+                    abandoned.set(i, 0L); // lost the ticket; retry
+                }
+                else if (shouldAbandon(interruptible, timed, deadline))
+                    return false;
+                else
+                    spins = spin(spins);
+            }
+        }
+        while (serving != t) {
+            if (shouldAbandon(interruptible, timed, deadline)) {
+                abandon(t);
+                return false;
+            }
+            spins = spin(spins);
+        }
+        if (interruptible || timed)
+            abandoned.set(t & (ABANDONED_SLOTS - 1), 0L);
+        owner = Thread.currentThread();
+        return true;
+    }
+
+    /**
+     * Abandons the given ticket, whose slot the current thread has
+     * reserved, releasing its turn if it has arrived.
+     */
+    private void abandon(int t) {
+        int i = t & (ABANDONED_SLOTS - 1);
+        long key = abandonedKey(t);
+        abandoned.set(i, key);
+        if (serving == t && abandoned.compareAndSet(i, key, 0L))
+            serve(t + 1);
+    }
+
+    /**
+     * Serves the given ticket, or the first following it that has not
+     * been abandoned.
+     */
+    private void serve(int t) {
+        for (;;) {
+            serving = t;
+            int i = t & (ABANDONED_SLOTS - 1);
+            long key = abandonedKey(t);
+            if (abandoned.get(i) != key ||
+                !abandoned.compareAndSet(i, key, 0L))
+                break;
+            ++t;
+        }
+    }
+
+    /**
+     * Acquires the lock only if no other thread holds or is waiting
+     * for it.
+     *
+     * @return {@code true} if the lock was acquired and
+     *         {@code false} otherwise
+     */
+    public boolean tryLock() {
+        int s = serving;
+        if (next == s && nextUpdater.compareAndSet(this, s, s + 1)) {
+            owner = Thread.currentThread();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Releases this lock, serving the next ticket.
+     *
+     * @throws IllegalMonitorStateException if the current thread does not
+     *         hold this lock
+     */
+    public void unlock() {
+        releaseOwnership();
+        serve(serving + 1);
+    }
+
+    /**
+     * Queries if this lock is held by any thread.  Abandoned tickets
+     * not yet skipped are reported as holding the lock.
+     *
+     * @return {@code true} if any thread holds this lock and
+     *         {@code false} otherwise
+     */
+    public boolean isLocked() {
+        return serving != next;
+    }
+
+    /**
+     * Returns an estimate of the number of threads holding or waiting
+     * to acquire this lock, including abandoned tickets not yet
+     * skipped.  This method is designed for use in monitoring of the
+     * system state, not for synchronization control.
+     *
+     * @return the estimated number of tickets outstanding
+     */
+    public int getTicketCount() {
+        int n = next - serving;
+        return (n < 0) ? 0 : n;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A variant of {@link MCSLock} that tolerates preemption of waiting
+ * threads, using the time-publishing technique described by He,
+ * Scherer and Scott.  Each waiting thread repeatedly publishes the
+ * current time in its queue node while spinning.  A releasing thread
+ * that finds the next node's time older than the <em>patience</em>
+ * of this lock presumes its thread is not running, removes the node
+ * from the queue, and passes the lock to a later thread instead.  A
+ * thread that finds its node removed when it next runs enqueues
+ * again, at the tail.
+ *
+ * <p>This avoids the convoys that form behind a descheduled waiting
+ * thread in a plain queue lock when there are more threads than
+ * processors, at the price of strict FIFO ordering: a removed thread
+ * loses its place in the queue, and may be removed repeatedly if it
+ * is repeatedly descheduled.  The patience should comfortably exceed
+ * the time a running thread may take between publications, as
+ * otherwise running threads are removed needlessly.
+ *
+ * <p>Waiting threads spin rather than block, and this lock is not
+ * reentrant and does not support conditions; see {@link
+ * #newCondition}.  The {@link #tryLock()} method acquires only if no
+ * thread is waiting.
+ */
+public class TimePublishedMCSLock extends AbstractSpinLock {
+
+    /** The patience used by the no-argument constructor, in nanoseconds */
+    static final long DEFAULT_PATIENCE = 1000L * 1000L;
+
+    /** Node status values */
+    static final int WAITING   = 0;
+    static final int GRANTED   = 1;
+    static final int ABANDONED = 2;
+    static final int REMOVED   = 3;
+
+    /**
+     * Queue node.  The status is set from WAITING to GRANTED or
+     * REMOVED by the releasing thread, or to ABANDONED by the waiting
+     * thread, using CAS, so that exactly one of these happens.
+     */
+    static final class Node {
+        volatile Node next;
+        volatile int status;
+        /** The last time published by the waiting thread */
+        volatile long time;
+
+        boolean casStatus(int expect, int update) {
+            return statusUpdater.compareAndSet(this, expect, update);
+        }
+
+        private static final AtomicIntegerFieldUpdater<Node> statusUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(Node.class, "status");
+    }
+
+    /** The maximum age of a published time, in nanoseconds */
+    private final long patience;
+
+    /** The last node in the queue, or null if the lock is free */
+    private volatile Node tail;
+
+    /** The node of the owner, accessed only by the owner */
+    private Node holder;
+
+    /** The number of nodes removed from the queue */
+    private volatile int removals;
+
+    private static final AtomicReferenceFieldUpdater<TimePublishedMCSLock, Node>
+        tailUpdater = AtomicReferenceFieldUpdater.newUpdater
+        (TimePublishedMCSLock.class, Node.class, "tail");
+
+    /**
+     * Creates a new {@code TimePublishedMCSLock} with a patience of
+     * one millisecond.
+     */
+    public TimePublishedMCSLock() {
+        this.patience = DEFAULT_PATIENCE;
+    }
+
+    /**
+     * Creates a new {@code TimePublishedMCSLock} with the given
+     * patience.
+     *
+     * @param patience the time since a waiting thread last published
+     *        the time after which it is presumed not to be running
+     * @param unit the time unit of the {@code patience} argument
+     * @throws IllegalArgumentException if {@code patience} is not
+     *         positive
+     * @throws NullPointerException if unit is null
+     */
+    public TimePublishedMCSLock(long patience, TimeUnit unit) {
+        if (patience <= 0L)
+            throw new IllegalArgumentException();
+        this.patience = unit.toNanos(patience);
+    }
+
+    final boolean acquire(boolean interruptible, boolean timed,
+                          long deadline) {
+        Node node;
+        for (;;) {
+            node = new Node();
+            node.time = System.nanoTime();
+            Node pred = tailUpdater.getAndSet(this, node);
+            if (pred == null)
+                break;
+            pred.next = node;
+            int s;
+            for (int spins = 0; (s = node.status) == WAITING; ) {
+                if (shouldAbandon(interruptible, timed, deadline) &&
+                    node.casStatus(WAITING, ABANDONED))
+                    return false;
+                spins = spin(spins);
+                node.time = System.nanoTime();
+            }
+            if (s == GRANTED)
+                break;
+            if (shouldAbandon(interruptible, timed, deadline))
+                return false;   // removed; do not re-enqueue
+        }
+        holder = node;
+        owner = Thread.currentThread();
+        return true;
+    }
+
+    /**
+     * Acquires the lock only if no other thread holds or is waiting
+     * for it.
+     *
+     * @return {@code true} if the lock was acquired and
+     *         {@code false} otherwise
+     */
+    public boolean tryLock() {
+        Node node;
+        if (tail == null &&
+            tailUpdater.compareAndSet(this, null, node = new Node())) {
+            holder = node;
+            owner = Thread.currentThread();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Releases this lock, passing it to the next waiting thread that
+     * has recently published the time, if any.
+     *
+     * @throws IllegalMonitorStateException if the current thread does not
+     *         hold this lock
+     */
+    public void unlock() {
+        releaseOwnership();
+        Node node = holder;
+        holder = null;
+        for (;;) {
+            Node next = node.next;
+            if (next == null) {
+                if (tailUpdater.compareAndSet(this, node, null))
+                    return;
+                // wait for successor to link
+                for (int spins = 0; (next = node.next) == null; )
+                    spins = spin(spins);
+            }
+            if (next.status == WAITING) {
+                if (System.nanoTime() - next.time > patience) {
+                    if (next.casStatus(WAITING, REMOVED))
+                        ++removals; // benign race
+                }
+                else if (next.casStatus(WAITING, GRANTED))
+                    return;
+            }
+            node = next; // abandoned or removed; pass over it
+        }
+    }
+
+    public boolean isLocked() {
+        return tail != null;
+    }
+
+    /**
+     * Returns the number of times a waiting thread has been removed
+     * from the queue because it had not published the time within
+     * the patience of this lock.  This method is designed for use in
+     * monitoring and tuning, not for synchronization control.
+     *
+     * @return the number of removals
+     */
+    public int getRemovalCount() {
+        return removals;
+    }
+}
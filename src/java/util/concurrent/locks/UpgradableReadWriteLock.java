@@ -0,0 +1,1173 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ *
+ * The per-thread read hold counting (HoldCounter, firstReader and
+ * cachedHoldCounter) is adapted from ReentrantReadWriteLock, written
+ * by Doug Lea with assistance from members of JCP JSR-166 Expert
+ * Group and released to the public domain.
+ */
+
+package java.util.concurrent.locks;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ReadWriteLock} that, in addition to the read and write
+ * locks, provides an <em>upgradable</em> lock, returned by {@link
+ * #upgradableLock}, for check-then-modify operations.  At most one
+ * thread at a time may hold the upgradable lock, but it may do so
+ * while other threads hold the read lock, and it excludes writers.
+ * The thread holding it may then acquire the write lock, waiting
+ * only for current readers to release, without releasing the
+ * upgradable lock.  As no other thread can have acquired the write
+ * lock in the meantime, whatever the holder read while holding the
+ * upgradable lock remains valid once it holds the write lock:
+ *
+ * <pre> {@code
+ * class Registry {
+ *   final UpgradableReadWriteLock rwl = new UpgradableReadWriteLock();
+ *   final Map<String, Object> m = new HashMap<String, Object>();
+ *
+ *   Object getOrCreate(String key) {
+ *     rwl.upgradableLock().lock();
+ *     try {
+ *       Object v = m.get(key);
+ *       if (v == null) {
+ *         rwl.writeLock().lock(); // upgrade; no need to recheck
+ *         try {
+ *           m.put(key, v = create(key));
+ *         } finally {
+ *           rwl.writeLock().unlock(); // downgrade to upgradable
+ *         }
+ *       }
+ *       return v;
+ *     } finally {
+ *       rwl.upgradableLock().unlock();
+ *     }
+ *   }
+ * }}</pre>
+ *
+ * <p>Otherwise this class has the properties of {@link
+ * ReentrantReadWriteLock}, including an optional fairness policy.
+ * Threads acquiring the upgradable lock are ordered as are those
+ * acquiring the write lock.  All three locks are reentrant.  The
+ * write lock may be downgraded to the upgradable or read lock, and
+ * the upgradable lock to the read lock, by acquiring the weaker lock
+ * before releasing the stronger.  A thread that holds the upgradable
+ * lock and attempts to acquire the read lock never blocks.
+ *
+ * <p>Upgrading is the only way to acquire the write lock while
+ * holding a lock of this class; as with {@link
+ * ReentrantReadWriteLock}, a thread holding the read lock that tries
+ * to acquire the write lock will never succeed, and it should not
+ * try to acquire the upgradable lock either, as that may wait for a
+ * writer that waits for it.  An attempt to upgrade by a thread that
+ * also holds the read lock throws {@link
+ * IllegalMonitorStateException} rather than waiting forever.
+ *
+ * <p>While the holder of the upgradable lock waits to upgrade, threads
+ * that do not already hold the read lock cannot acquire it, so the
+ * holder waits only for current readers.  It does so without
+ * joining the queue of waiting threads, as it could otherwise be
+ * queued behind writers waiting for it.
+ *
+ * <p>The write lock supports conditions, which behave as do those of
+ * {@link ReentrantReadWriteLock}.  A thread waiting on such a
+ * condition releases both the write lock and, if it holds it, the
+ * upgradable lock, and reacquires both before returning.
+ *
+ * <p>Serialization of this class behaves in the same way as built-in
+ * locks: a deserialized lock is in the unlocked state, regardless of
+ * its state when serialized.
+ */
+public class UpgradableReadWriteLock
+        implements ReadWriteLock, java.io.Serializable {
+    private static final long serialVersionUID = 2164587093437210871L;
+    /** Inner class providing readlock */
+    private final UpgradableReadWriteLock.ReadLock readerLock;
+    /** Inner class providing upgradable lock */
+    private final UpgradableReadWriteLock.UpgradableLock upgraderLock;
+    /** Inner class providing writelock */
+    private final UpgradableReadWriteLock.WriteLock writerLock;
+    /** Performs all synchronization mechanics */
+    final Sync sync;
+
+    /**
+     * Creates a new {@code UpgradableReadWriteLock} with
+     * default (nonfair) ordering properties.
+     */
+    public UpgradableReadWriteLock() {
+        this(false);
+    }
+
+    /**
+     * Creates a new {@code UpgradableReadWriteLock} with
+     * the given fairness policy.
+     *
+     * @param fair {@code true} if this lock should use a fair ordering policy
+     */
+    public UpgradableReadWriteLock(boolean fair) {
+        sync = fair ? new FairSync() : new NonfairSync();
+        readerLock = new ReadLock(this);
+        upgraderLock = new UpgradableLock(this);
+        writerLock = new WriteLock(this);
+    }
+
+    public UpgradableReadWriteLock.WriteLock writeLock() { return writerLock; }
+    public UpgradableReadWriteLock.ReadLock  readLock()  { return readerLock; }
+
+    /**
+     * Returns the upgradable lock.
+     *
+     * @return the lock used for reading with the option to upgrade
+     */
+    public UpgradableReadWriteLock.UpgradableLock upgradableLock() {
+        return upgraderLock;
+    }
+
+    /**
+     * Synchronization implementation for UpgradableReadWriteLock.
+     * Subclassed into fair and nonfair versions.
+     */
+    abstract static class Sync extends AbstractQueuedLongSynchronizer {
+        private static final long serialVersionUID = -6504830145062771625L;
+
+        /*
+         * Lock state is divided into four fields.  From the low end:
+         * the write hold count (16 bits), the upgradable hold count
+         * (15 bits), a bit set while the upgradable holder waits to
+         * upgrade, and the read hold count (the upper 32 bits).  The
+         * write and upgradable locks are acquired in exclusive mode,
+         * using acquire arguments holding their counts in the same
+         * positions, and the read lock in shared mode.  A condition
+         * wait thus releases and reacquires both exclusive locks.
+         */
+
+        static final int  UPGRADE_SHIFT  = 16;
+        static final int  SHARED_SHIFT   = 32;
+        static final long EXCLUSIVE_MASK = (1L << UPGRADE_SHIFT) - 1;
+        static final long UPGRADE_UNIT   = 1L << UPGRADE_SHIFT;
+        static final long UPGRADE_MASK   = ((1L << 15) - 1) << UPGRADE_SHIFT;
+        static final long UPGRADING      = 1L << 31;
+        static final long SHARED_UNIT    = 1L << SHARED_SHIFT;
+        static final long HOLDS_MASK     = EXCLUSIVE_MASK | UPGRADE_MASK;
+        static final int  MAX_COUNT      = (1 << 16) - 1;
+        static final int  MAX_UPGRADES   = (1 << 15) - 1;
+
+        /** Returns the number of shared holds represented in count */
+        static int sharedCount(long c)    { return (int)(c >>> SHARED_SHIFT); }
+        /** Returns the number of write holds represented in count */
+        static int exclusiveCount(long c) { return (int)(c & EXCLUSIVE_MASK); }
+        /** Returns the number of upgradable holds represented in count */
+        static int upgradeCount(long c) {
+            return (int)((c & UPGRADE_MASK) >>> UPGRADE_SHIFT);
+        }
+
+        /**
+         * A counter for per-thread read hold counts.
+         * Maintained as a ThreadLocal; cached in cachedHoldCounter
+         */
+        static final class HoldCounter {
+            int count = 0;
+            // Use id, not reference, to avoid garbage retention
+            final long tid = Thread.currentThread().getId();
+        }
+
+        /**
+         * ThreadLocal subclass. Easiest to explicitly define for sake
+         * of deserialization mechanics.
+         */
+        static final class ThreadLocalHoldCounter
+            extends ThreadLocal<HoldCounter> {
+            public HoldCounter initialValue() {
+                return new HoldCounter();
+            }
+        }
+
+        /**
+         * The number of reentrant read locks held by current thread,
+         * tracked by code adapted from the JSR-166
+         * ReentrantReadWriteLock.
+         */
+        private transient ThreadLocalHoldCounter readHolds;
+        private transient HoldCounter cachedHoldCounter;
+        private transient Thread firstReader = null;
+        private transient int firstReaderHoldCount;
+
+        /**
+         * The thread holding the upgradable lock.  Like the exclusive
+         * owner thread, written only by that thread, after acquiring,
+         * and before releasing, so that other threads need not read
+         * it except when the state shows that it is waiting to
+         * upgrade.
+         */
+        private transient Thread upgrader;
+
+        Sync() {
+            readHolds = new ThreadLocalHoldCounter();
+            setState(getState()); // ensures visibility of readHolds
+        }
+
+        /**
+         * Returns true if the current thread, when trying to acquire
+         * the read lock, and otherwise eligible to do so, should block
+         * because of policy for overtaking other waiting threads.
+         */
+        abstract boolean readerShouldBlock();
+
+        /**
+         * Returns true if the current thread, when trying to acquire
+         * the write or upgradable lock, and otherwise eligible to do
+         * so, should block because of policy for overtaking other
+         * waiting threads.  Not consulted when upgrading.
+         */
+        abstract boolean writerShouldBlock();
+
+        protected final boolean tryAcquire(long acquires) {
+            /*
+             * Walkthrough:
+             * 1. If the write lock is held by another thread, fail.
+             *    If held by the current thread, this is a reentrant
+             *    acquire of either lock; no other thread can change
+             *    state, so just set it.
+             * 2. If acquiring the write lock, fail if the upgradable
+             *    lock is held by another thread, or there are readers.
+             *    If the upgradable lock is held by the current thread
+             *    this is an upgrade, which ignores queue policy.
+             * 3. If acquiring the upgradable lock, fail if held by
+             *    another thread.  Readers are permitted, so the CAS
+             *    may fail due to them, in which case retry.
+             */
+            Thread current = Thread.currentThread();
+            long a = acquires & HOLDS_MASK;
+            int w = exclusiveCount(a), u = upgradeCount(a);
+            long c = getState();
+            int wc = exclusiveCount(c), uc = upgradeCount(c);
+            if (wc + w > MAX_COUNT || uc + u > MAX_UPGRADES)
+                throw new Error("Maximum lock count exceeded");
+            if (wc != 0) {
+                if (current != getExclusiveOwnerThread())
+                    return false;
+                // Reentrant acquire
+                setState(c + a);
+                if (u != 0)
+                    upgrader = current;
+                return true;
+            }
+            if (w != 0) {
+                if (uc != 0 && upgrader != current)
+                    return false;
+                if (sharedCount(c) != 0 ||
+                    (uc == 0 && writerShouldBlock()) ||
+                    !compareAndSetState(c, (c & ~UPGRADING) + a))
+                    return false;
+                setExclusiveOwnerThread(current);
+                if (u != 0)
+                    upgrader = current;
+                return true;
+            }
+            if (uc != 0) {
+                if (upgrader != current)
+                    return false;
+                // Reentrant acquire, racing only with readers
+                while (!compareAndSetState(c, c + a))
+                    c = getState();
+                return true;
+            }
+            if (writerShouldBlock())
+                return false;
+            for (;;) {
+                if (compareAndSetState(c, c + a)) {
+                    upgrader = current;
+                    return true;
+                }
+                c = getState();
+                if (exclusiveCount(c) != 0 || upgradeCount(c) != 0)
+                    return false;
+            }
+        }
+
+        /*
+         * Note that tryRelease and tryAcquire can be called by
+         * Conditions. So it is possible that their arguments contain
+         * both write and upgradable holds that are all released during
+         * a condition wait and re-established in tryAcquire.
+         */
+
+        protected final boolean tryRelease(long releases) {
+            Thread current = Thread.currentThread();
+            long r = releases & HOLDS_MASK;
+            int w = exclusiveCount(r), u = upgradeCount(r);
+            long c = getState();
+            int wc = exclusiveCount(c), uc = upgradeCount(c);
+            if ((w != 0 && current != getExclusiveOwnerThread()) ||
+                (u != 0 && current != upgrader) ||
+                w > wc || u > uc)
+                throw new IllegalMonitorStateException();
+            if (w != 0 && w == wc)
+                setExclusiveOwnerThread(null);
+            if (u != 0 && u == uc)
+                upgrader = null;
+            while (!compareAndSetState(c, c - r))
+                c = getState();
+            // Acquires may now succeed if this ends write mode, or if
+            // it ends upgradable mode outside of write mode
+            return w == wc && (w != 0 || u == uc);
+        }
+
+        /**
+         * Releases a read hold, or, if the argument is zero, abandons
+         * an upgrade, permitting readers blocked by it to proceed.
+         */
+        protected final boolean tryReleaseShared(long releases) {
+            if (releases == 0L) {
+                for (;;) {
+                    long c = getState();
+                    if (compareAndSetState(c, c & ~UPGRADING))
+                        return true;
+                }
+            }
+            Thread current = Thread.currentThread();
+            if (firstReader == current) {
+                // assert firstReaderHoldCount > 0;
+                if (firstReaderHoldCount == 1)
+                    firstReader = null;
+                else
+                    firstReaderHoldCount--;
+            } else {
+                HoldCounter rh = cachedHoldCounter;
+                if (rh == null || rh.tid != current.getId())
+                    rh = readHolds.get();
+                int count = rh.count;
+                if (count <= 1) {
+                    readHolds.remove();
+                    if (count <= 0)
+                        throw unmatchedUnlockException();
+                }
+                --rh.count;
+            }
+            for (;;) {
+                long c = getState();
+                long nextc = c - SHARED_UNIT;
+                if (compareAndSetState(c, nextc)) {
+                    if (sharedCount(nextc) != 0)
+                        return false;
+                    if ((nextc & UPGRADING) != 0)
+                        LockSupport.unpark(upgrader);
+                    // May allow waiting writers to proceed
+                    return true;
+                }
+            }
+        }
+
+        private IllegalMonitorStateException unmatchedUnlockException() {
+            return new IllegalMonitorStateException(
+                "attempt to unlock read lock, not locked by current thread");
+        }
+
+        /**
+         * Returns true if the current thread may acquire the read lock
+         * only if it holds it already: if another thread holds the
+         * write lock, or the upgradable holder is waiting to upgrade,
+         * or queue policy says so, except that a thread holding the
+         * write or upgradable lock is never made to wait.
+         *
+         * @return -1 if the read lock cannot be acquired at all, 1 if
+         *         only reentrantly, else 0
+         */
+        private int readerStatus(long c, Thread current) {
+            if (exclusiveCount(c) != 0)
+                return (getExclusiveOwnerThread() == current) ? 0 : -1;
+            if (upgradeCount(c) != 0 && upgrader == current)
+                return 0;
+            return ((c & UPGRADING) != 0 || readerShouldBlock()) ? 1 : 0;
+        }
+
+        /**
+         * Records a read hold by the current thread, once acquired.
+         *
+         * @param c the state before acquiring
+         * @param rh the current thread's hold counter, or null if not known
+         */
+        private void recordRead(long c, Thread current, HoldCounter rh) {
+            if (sharedCount(c) == 0) {
+                firstReader = current;
+                firstReaderHoldCount = 1;
+            } else if (firstReader == current) {
+                firstReaderHoldCount++;
+            } else {
+                if (rh == null)
+                    rh = cachedHoldCounter;
+                if (rh == null || rh.tid != current.getId())
+                    rh = readHolds.get();
+                else if (rh.count == 0)
+                    readHolds.set(rh);
+                rh.count++;
+                cachedHoldCounter = rh; // cache for release
+            }
+        }
+
+        /**
+         * Returns true if the current thread holds the read lock.
+         * May initialize and then remove a hold counter.
+         *
+         * @param rh the current thread's hold counter, or null if not known
+         */
+        private boolean holdsRead(Thread current, HoldCounter rh) {
+            if (firstReader == current)
+                return true;
+            if (rh == null) {
+                rh = cachedHoldCounter;
+                if (rh == null || rh.tid != current.getId()) {
+                    rh = readHolds.get();
+                    if (rh.count == 0)
+                        readHolds.remove();
+                }
+            }
+            return rh.count != 0;
+        }
+
+        protected final long tryAcquireShared(long unused) {
+            Thread current = Thread.currentThread();
+            for (;;) {
+                long c = getState();
+                int s = readerStatus(c, current);
+                if (s < 0 || (s > 0 && !holdsRead(current, null)))
+                    return -1;
+                if (sharedCount(c) == MAX_COUNT)
+                    throw new Error("Maximum lock count exceeded");
+                if (compareAndSetState(c, c + SHARED_UNIT)) {
+                    recordRead(c, current, null);
+                    return 1;
+                }
+            }
+        }
+
+        /**
+         * Performs tryLock for read, enabling barging in both modes,
+         * though not ahead of an upgrade.
+         */
+        final boolean tryReadLock() {
+            Thread current = Thread.currentThread();
+            for (;;) {
+                long c = getState();
+                if (exclusiveCount(c) != 0 &&
+                    getExclusiveOwnerThread() != current)
+                    return false;
+                if ((c & UPGRADING) != 0 && !holdsRead(current, null))
+                    return false;
+                if (sharedCount(c) == MAX_COUNT)
+                    throw new Error("Maximum lock count exceeded");
+                if (compareAndSetState(c, c + SHARED_UNIT)) {
+                    recordRead(c, current, null);
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Performs tryLock for write, enabling barging in both modes.
+         * This is identical in effect to tryAcquire(1) except for lack
+         * of calls to writerShouldBlock.
+         */
+        final boolean tryWriteLock() {
+            Thread current = Thread.currentThread();
+            long c = getState();
+            int wc = exclusiveCount(c);
+            if (wc != 0) {
+                if (current != getExclusiveOwnerThread())
+                    return false;
+                if (wc == MAX_COUNT)
+                    throw new Error("Maximum lock count exceeded");
+                setState(c + 1);
+                return true;
+            }
+            if ((upgradeCount(c) != 0 && upgrader != current) ||
+                sharedCount(c) != 0 ||
+                !compareAndSetState(c, (c & ~UPGRADING) + 1))
+                return false;
+            setExclusiveOwnerThread(current);
+            return true;
+        }
+
+        /**
+         * Performs tryLock for the upgradable lock, enabling barging
+         * in both modes.
+         */
+        final boolean tryUpgradableLock() {
+            Thread current = Thread.currentThread();
+            for (;;) {
+                long c = getState();
+                int uc = upgradeCount(c);
+                if (exclusiveCount(c) != 0 &&
+                    current != getExclusiveOwnerThread())
+                    return false;
+                if (uc != 0 && current != upgrader)
+                    return false;
+                if (uc == MAX_UPGRADES)
+                    throw new Error("Maximum lock count exceeded");
+                if (compareAndSetState(c, c + UPGRADE_UNIT)) {
+                    upgrader = current;
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Upgrades the upgradable lock held by the current thread to
+         * the write lock.  Sets the UPGRADING bit, so that readers
+         * not holding the read lock block, and then parks until the
+         * last reader to release unparks it.  The upgrader does not
+         * queue, as the threads queued ahead of it may be writers,
+         * which wait for it to release the upgradable lock.  If
+         * upgrading times out or is interrupted, the UPGRADING bit is
+         * cleared by a shared release, waking readers that queued.
+         *
+         * @return true if upgraded, false if timed out
+         * @throws InterruptedException if interruptible and interrupted
+         */
+        final boolean upgrade(boolean interruptible, boolean timed,
+                              long nanos)
+            throws InterruptedException {
+            if (interruptible && Thread.interrupted())
+                throw new InterruptedException();
+            if (tryAcquire(1))
+                return true;
+            if (getReadHoldCount() != 0)
+                throw new IllegalMonitorStateException(
+                    "attempt to upgrade while holding read lock");
+            if (timed && nanos <= 0L)
+                return false;
+            long deadline = timed ? System.nanoTime() + nanos : 0L;
+            for (;;) {
+                long c = getState();
+                if (compareAndSetState(c, c | UPGRADING))
+                    break;
+            }
+            boolean upgraded = false, interrupted = false;
+            try {
+                while (!(upgraded = tryAcquire(1))) {
+                    if (!timed)
+                        LockSupport.park(this);
+                    else if ((nanos = deadline - System.nanoTime()) > 0L)
+                        LockSupport.parkNanos(this, nanos);
+                    else
+                        break;
+                    if (Thread.interrupted()) {
+                        if (interruptible)
+                            throw new InterruptedException();
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                if (!upgraded)
+                    releaseShared(0L);
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+            return upgraded;
+        }
+
+        /**
+         * Upgrades when it can neither time out nor be interrupted.
+         */
+        final void upgrade() {
+            try {
+                upgrade(false, false, 0L);
+            } catch (InterruptedException cannotHappen) {
+                throw new Error(cannotHappen);
+            }
+        }
+
+        protected final boolean isHeldExclusively() {
+            // While we must in general read state before owner,
+            // we don't need to do so to check if current thread is owner
+            return getExclusiveOwnerThread() == Thread.currentThread();
+        }
+
+        final boolean isUpgrader() {
+            return upgrader == Thread.currentThread();
+        }
+
+        // Methods relayed to outer class
+
+        final ConditionObject newCondition() {
+            return new ConditionObject();
+        }
+
+        final Thread getOwner() {
+            // Must read state before owner to ensure memory consistency
+            return ((exclusiveCount(getState()) == 0) ?
+                    null :
+                    getExclusiveOwnerThread());
+        }
+
+        final Thread getUpgrader() {
+            // Must read state before upgrader to ensure memory consistency
+            return ((upgradeCount(getState()) == 0) ? null : upgrader);
+        }
+
+        final int getReadLockCount() {
+            return sharedCount(getState());
+        }
+
+        final boolean isWriteLocked() {
+            return exclusiveCount(getState()) != 0;
+        }
+
+        final boolean isUpgradableLocked() {
+            return upgradeCount(getState()) != 0;
+        }
+
+        final int getWriteHoldCount() {
+            return isHeldExclusively() ? exclusiveCount(getState()) : 0;
+        }
+
+        final int getUpgradableHoldCount() {
+            return isUpgrader() ? upgradeCount(getState()) : 0;
+        }
+
+        final int getReadHoldCount() {
+            if (getReadLockCount() == 0)
+                return 0;
+
+            Thread current = Thread.currentThread();
+            if (firstReader == current)
+                return firstReaderHoldCount;
+
+            HoldCounter rh = cachedHoldCounter;
+            if (rh != null && rh.tid == current.getId())
+                return rh.count;
+
+            int count = readHolds.get().count;
+            if (count == 0) readHolds.remove();
+            return count;
+        }
+
+        /**
+         * Reconstitutes the instance from a stream (that is, deserializes it).
+         */
+        private void readObject(java.io.ObjectInputStream s)
+            throws java.io.IOException, ClassNotFoundException {
+            s.defaultReadObject();
+            readHolds = new ThreadLocalHoldCounter();
+            setState(0); // reset to unlocked state
+        }
+
+        final long getCount() { return getState(); }
+    }
+
+    /**
+     * Nonfair version of Sync
+     */
+    static final class NonfairSync extends Sync {
+        private static final long serialVersionUID = 3785932608114378212L;
+        final boolean writerShouldBlock() {
+            return false; // writers can always barge
+        }
+        final boolean readerShouldBlock() {
+            /* As in ReentrantReadWriteLock, block if the thread that
+             * momentarily appears to be head of queue, if one exists,
+             * is waiting for the write or upgradable lock.
+             */
+            return apparentlyFirstQueuedIsExclusive();
+        }
+    }
+
+    /**
+     * Fair version of Sync
+     */
+    static final class FairSync extends Sync {
+        private static final long serialVersionUID = -7829345316075328406L;
+        final boolean writerShouldBlock() {
+            return hasQueuedPredecessors();
+        }
+        final boolean readerShouldBlock() {
+            return hasQueuedPredecessors();
+        }
+    }
+
+    /**
+     * The lock returned by method {@link UpgradableReadWriteLock#readLock}.
+     */
+    public static class ReadLock implements Lock, java.io.Serializable {
+        private static final long serialVersionUID = -4319807415327394508L;
+        private final Sync sync;
+
+        /**
+         * Constructor for use by subclasses
+         *
+         * @param lock the outer lock object
+         * @throws NullPointerException if the lock is null
+         */
+        protected ReadLock(UpgradableReadWriteLock lock) {
+            sync = lock.sync;
+        }
+
+        /**
+         * Acquires the read lock.
+         *
+         * <p>Acquires the read lock if the write lock is not held by
+         * another thread, and the holder of the upgradable lock is not
+         * waiting to upgrade, and returns immediately.
+         *
+         * <p>Otherwise the current thread becomes disabled for thread
+         * scheduling purposes and lies dormant until the read lock
+         * has been acquired.
+         */
+        public void lock() {
+            sync.acquireShared(1);
+        }
+
+        public void lockInterruptibly() throws InterruptedException {
+            sync.acquireSharedInterruptibly(1);
+        }
+
+        /**
+         * Acquires the read lock only if the write lock is not held by
+         * another thread, and the holder of the upgradable lock is not
+         * waiting to upgrade, at the time of invocation.  As for
+         * {@link ReentrantReadWriteLock.ReadLock#tryLock()}, this
+         * does not honor the fairness setting.
+         *
+         * @return {@code true} if the read lock was acquired
+         */
+        public boolean tryLock() {
+            return sync.tryReadLock();
+        }
+
+        public boolean tryLock(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            return sync.tryAcquireSharedNanos(1, unit.toNanos(timeout));
+        }
+
+        /**
+         * Attempts to release this lock.
+         *
+         * <p>If the number of readers is now zero then the lock
+         * is made available for write lock attempts, including an
+         * upgrade.
+         *
+         * @throws IllegalMonitorStateException if the current thread
+         *         does not hold this lock
+         */
+        public void unlock() {
+            sync.releaseShared(1);
+        }
+
+        /**
+         * Throws {@code UnsupportedOperationException} because
+         * {@code ReadLocks} do not support conditions.
+         *
+         * @throws UnsupportedOperationException always
+         */
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+
+        public String toString() {
+            int r = sync.getReadLockCount();
+            return super.toString() +
+                "[Read locks = " + r + "]";
+        }
+    }
+
+    /**
+     * The lock returned by method {@link
+     * UpgradableReadWriteLock#upgradableLock}.
+     */
+    public static class UpgradableLock implements Lock, java.io.Serializable {
+        private static final long serialVersionUID = 6250398174802645237L;
+        private final Sync sync;
+
+        /**
+         * Constructor for use by subclasses
+         *
+         * @param lock the outer lock object
+         * @throws NullPointerException if the lock is null
+         */
+        protected UpgradableLock(UpgradableReadWriteLock lock) {
+            sync = lock.sync;
+        }
+
+        /**
+         * Acquires the upgradable lock.
+         *
+         * <p>Acquires the upgradable lock if neither it nor the write
+         * lock is held by another thread, and returns immediately,
+         * whether or not other threads hold the read lock.  If the
+         * current thread already holds the upgradable lock, or holds
+         * the write lock, the hold count is incremented and the
+         * method returns immediately.
+         *
+         * <p>Otherwise the current thread becomes disabled for thread
+         * scheduling purposes and lies dormant until the upgradable
+         * lock has been acquired.
+         */
+        public void lock() {
+            sync.acquire(Sync.UPGRADE_UNIT);
+        }
+
+        public void lockInterruptibly() throws InterruptedException {
+            sync.acquireInterruptibly(Sync.UPGRADE_UNIT);
+        }
+
+        /**
+         * Acquires the upgradable lock only if neither it nor the
+         * write lock is held by another thread at the time of
+         * invocation.  This does not honor the fairness setting.
+         *
+         * @return {@code true} if the lock was free and was acquired
+         *         by the current thread, or the lock was already held
+         *         by the current thread
+         */
+        public boolean tryLock() {
+            return sync.tryUpgradableLock();
+        }
+
+        public boolean tryLock(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            return sync.tryAcquireNanos(Sync.UPGRADE_UNIT,
+                                        unit.toNanos(timeout));
+        }
+
+        /**
+         * Attempts to release this lock.
+         *
+         * @throws IllegalMonitorStateException if the current thread
+         *         does not hold this lock
+         */
+        public void unlock() {
+            sync.release(Sync.UPGRADE_UNIT);
+        }
+
+        /**
+         * Throws {@code UnsupportedOperationException} because
+         * {@code UpgradableLocks} do not support conditions; use
+         * those of the write lock, after upgrading.
+         *
+         * @throws UnsupportedOperationException always
+         */
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+
+        public String toString() {
+            Thread o = sync.getUpgrader();
+            return super.toString() + ((o == null) ?
+                                       "[Unlocked]" :
+                                       "[Locked by thread " + o.getName() + "]");
+        }
+
+        /**
+         * Queries if this upgradable lock is held by the current thread.
+         *
+         * @return {@code true} if the current thread holds this lock and
+         *         {@code false} otherwise
+         */
+        public boolean isHeldByCurrentThread() {
+            return sync.isUpgrader();
+        }
+
+        /**
+         * Queries the number of holds on this upgradable lock by the
+         * current thread.
+         *
+         * @return the number of holds on this lock by the current thread,
+         *         or zero if this lock is not held by the current thread
+         */
+        public int getHoldCount() {
+            return sync.getUpgradableHoldCount();
+        }
+    }
+
+    /**
+     * The lock returned by method {@link UpgradableReadWriteLock#writeLock}.
+     */
+    public static class WriteLock implements Lock, java.io.Serializable {
+        private static final long serialVersionUID = -1813094367128452709L;
+        private final Sync sync;
+
+        /**
+         * Constructor for use by subclasses
+         *
+         * @param lock the outer lock object
+         * @throws NullPointerException if the lock is null
+         */
+        protected WriteLock(UpgradableReadWriteLock lock) {
+            sync = lock.sync;
+        }
+
+        /**
+         * Acquires the write lock.
+         *
+         * <p>Acquires the write lock if no other thread holds any lock
+         * of this class, and returns immediately, setting the write
+         * lock hold count to one.
+         *
+         * <p>If the current thread already holds the write lock then
+         * the hold count is incremented by one and the method returns
+         * immediately.
+         *
+         * <p>If the current thread holds the upgradable lock, the lock
+         * is upgraded: readers not already holding the read lock are
+         * prevented from acquiring it, and the current thread waits
+         * only until current readers have released it.
+         *
+         * <p>Otherwise the current thread becomes disabled for thread
+         * scheduling purposes and lies dormant until the write lock
+         * has been acquired.
+         *
+         * @throws IllegalMonitorStateException if upgrading and the
+         *         current thread also holds the read lock
+         */
+        public void lock() {
+            if (sync.isUpgrader())
+                sync.upgrade();
+            else
+                sync.acquire(1);
+        }
+
+        public void lockInterruptibly() throws InterruptedException {
+            if (sync.isUpgrader())
+                sync.upgrade(true, false, 0L);
+            else
+                sync.acquireInterruptibly(1);
+        }
+
+        /**
+         * Acquires the write lock only if no other thread holds any
+         * lock of this class at the time of invocation, or the current
+         * thread holds the write lock, or holds the upgradable lock
+         * and no thread holds the read lock.  This does not honor the
+         * fairness setting.
+         *
+         * @return {@code true} if the lock was free and was acquired
+         *         by the current thread, or the write lock was already
+         *         held by the current thread
+         */
+        public boolean tryLock() {
+            return sync.tryWriteLock();
+        }
+
+        /**
+         * Acquires the write lock if it becomes available within the
+         * given waiting time and the current thread has not been
+         * {@linkplain Thread#interrupt interrupted}, upgrading if the
+         * current thread holds the upgradable lock.  If upgrading
+         * times out, readers that were prevented from acquiring the
+         * read lock may then do so.
+         *
+         * @param timeout the time to wait for the write lock
+         * @param unit the time unit of the timeout argument
+         * @return {@code true} if the lock was acquired
+         * @throws InterruptedException if the current thread is interrupted
+         * @throws IllegalMonitorStateException if upgrading and the
+         *         current thread also holds the read lock
+         * @throws NullPointerException if the time unit is null
+         */
+        public boolean tryLock(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            if (sync.isUpgrader())
+                return sync.upgrade(true, true, nanos);
+            return sync.tryAcquireNanos(1, nanos);
+        }
+
+        /**
+         * Attempts to release this lock.  If the current thread also
+         * holds the upgradable lock, it continues to do so.
+         *
+         * @throws IllegalMonitorStateException if the current thread
+         *         does not hold this lock
+         */
+        public void unlock() {
+            sync.release(1);
+        }
+
+        /**
+         * Returns a {@link Condition} instance for use with this
+         * lock, behaving as do those of the write lock of {@link
+         * ReentrantReadWriteLock}, except that waiting also releases
+         * the upgradable lock if held.
+         *
+         * @return the Condition object
+         */
+        public Condition newCondition() {
+            return sync.newCondition();
+        }
+
+        public String toString() {
+            Thread o = sync.getOwner();
+            return super.toString() + ((o == null) ?
+                                       "[Unlocked]" :
+                                       "[Locked by thread " + o.getName() + "]");
+        }
+
+        /**
+         * Queries if this write lock is held by the current thread.
+         *
+         * @return {@code true} if the current thread holds this lock and
+         *         {@code false} otherwise
+         */
+        public boolean isHeldByCurrentThread() {
+            return sync.isHeldExclusively();
+        }
+
+        /**
+         * Queries the number of holds on this write lock by the
+         * current thread.
+         *
+         * @return the number of holds on this lock by the current thread,
+         *         or zero if this lock is not held by the current thread
+         */
+        public int getHoldCount() {
+            return sync.getWriteHoldCount();
+        }
+    }
+
+    // Instrumentation and status
+
+    /**
+     * Returns {@code true} if this lock has fairness set true.
+     *
+     * @return {@code true} if this lock has fairness set true
+     */
+    public final boolean isFair() {
+        return sync instanceof FairSync;
+    }
+
+    /**
+     * Returns the thread that currently owns the write lock, or
+     * {@code null} if not owned.  This method is designed to
+     * facilitate construction of subclasses that provide more
+     * extensive lock monitoring facilities.
+     *
+     * @return the owner, or {@code null} if not owned
+     */
+    protected Thread getOwner() {
+        return sync.getOwner();
+    }
+
+    /**
+     * Returns the thread that currently holds the upgradable lock,
+     * or {@code null} if not held.  This method is designed to
+     * facilitate construction of subclasses that provide more
+     * extensive lock monitoring facilities.
+     *
+     * @return the holder, or {@code null} if not held
+     */
+    protected Thread getUpgrader() {
+        return sync.getUpgrader();
+    }
+
+    /**
+     * Queries the number of read locks held for this lock. This
+     * method is designed for use in monitoring system state, not for
+     * synchronization control.
+     * @return the number of read locks held.
+     */
+    public int getReadLockCount() {
+        return sync.getReadLockCount();
+    }
+
+    /**
+     * Queries if the write lock is held by any thread. This method is
+     * designed for use in monitoring system state, not for
+     * synchronization control.
+     *
+     * @return {@code true} if any thread holds the write lock and
+     *         {@code false} otherwise
+     */
+    public boolean isWriteLocked() {
+        return sync.isWriteLocked();
+    }
+
+    /**
+     * Queries if the upgradable lock is held by any thread. This
+     * method is designed for use in monitoring system state, not for
+     * synchronization control.
+     *
+     * @return {@code true} if any thread holds the upgradable lock and
+     *         {@code false} otherwise
+     */
+    public boolean isUpgradableLocked() {
+        return sync.isUpgradableLocked();
+    }
+
+    /**
+     * Queries if the write lock is held by the current thread.
+     *
+     * @return {@code true} if the current thread holds the write lock and
+     *         {@code false} otherwise
+     */
+    public boolean isWriteLockedByCurrentThread() {
+        return sync.isHeldExclusively();
+    }
+
+    /**
+     * Queries the number of reentrant write holds on this lock by the
+     * current thread.
+     *
+     * @return the number of holds on the write lock by the current thread,
+     *         or zero if the write lock is not held by the current thread
+     */
+    public int getWriteHoldCount() {
+        return sync.getWriteHoldCount();
+    }
+
+    /**
+     * Queries the number of reentrant read holds on this lock by the
+     * current thread.
+     *
+     * @return the number of holds on the read lock by the current thread,
+     *         or zero if the read lock is not held by the current thread
+     */
+    public int getReadHoldCount() {
+        return sync.getReadHoldCount();
+    }
+
+    /**
+     * Queries whether any threads are waiting to acquire any lock of
+     * this class, other than the holder of the upgradable lock
+     * waiting to upgrade.  This method is designed primarily for use
+     * in monitoring of the system state.
+     *
+     * @return {@code true} if there may be other threads waiting to
+     *         acquire the lock
+     */
+    public final boolean hasQueuedThreads() {
+        return sync.hasQueuedThreads();
+    }
+
+    /**
+     * Returns an estimate of the number of threads waiting to acquire
+     * any lock of this class, other than the holder of the upgradable
+     * lock waiting to upgrade.  This method is designed for use in
+     * monitoring of the system state, not for synchronization control.
+     *
+     * @return the estimated number of threads waiting for this lock
+     */
+    public final int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    /**
+     * Returns a string identifying this lock, as well as its lock state.
+     * The state, in brackets, includes the String {@code "Write locks ="}
+     * followed by the number of reentrantly held write locks, the
+     * String {@code "Upgradable locks ="} followed by the number of
+     * reentrantly held upgradable locks, and the String {@code "Read
+     * locks ="} followed by the number of held read locks.
+     *
+     * @return a string identifying this lock, as well as its lock state
+     */
+    public String toString() {
+        long c = sync.getCount();
+        return super.toString() +
+            "[Write locks = " + Sync.exclusiveCount(c) +
+            ", Upgradable locks = " + Sync.upgradeCount(c) +
+            ", Read locks = " + Sync.sharedCount(c) + "]";
+    }
+}
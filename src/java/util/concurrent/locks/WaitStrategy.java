@@ -0,0 +1,152 @@
+/*
+ * Released to the public domain, as explained at
+ * http://creativecommons.org/publicdomain/zero/1.0/
+ */
+
+package java.util.concurrent.locks;
+
+/**
+ * A policy deciding whether a queued thread that has failed to
+ * acquire a synchronizer should block, or instead retry without
+ * blocking.  Strategies are installed by synchronizer subclasses
+ * using {@link AbstractQueuedSynchronizer#setWaitStrategy} or {@link
+ * AbstractQueuedLongSynchronizer#setWaitStrategy}, and are consulted
+ * only by the thread at the front of the wait queue, after it has
+ * arranged to be signalled on release.  Threads further back in the
+ * queue cannot acquire until their predecessors do, so they always
+ * block.
+ *
+ * <p>Blocking and unblocking a thread typically costs tens of
+ * microseconds, which can dominate the cost of handing off a
+ * synchronizer that is held only very briefly.  Spinning avoids this
+ * latency at the price of keeping a processor busy while waiting, so
+ * strategies other than {@link #park} are appropriate only when hold
+ * times are known to be short and the number of waiting threads does
+ * not exceed the number of available processors.
+ *
+ * <p>This class provides the following standard strategies:
+ *
+ * <ul>
+ * <li> {@link #park}: always block (the default)
+ * <li> {@link #busySpin}: never block
+ * <li> {@link #spinThenYield}: retry a given number of times, then
+ *      keep retrying but yield the processor between attempts
+ * <li> {@link #spinThenPark}: retry a given number of times, then block
+ * </ul>
+ *
+ * <p>Implementations must be thread-safe, as a single instance is
+ * shared by all threads waiting on a synchronizer, and should be
+ * short and not block.
+ */
+public abstract class WaitStrategy {
+
+    /**
+     * Constructor for use by subclasses.
+     */
+    protected WaitStrategy() { }
+
+    /**
+     * Invoked by the first queued thread after a failed attempt to
+     * acquire, when it would otherwise block.  A {@code true} return
+     * causes the thread to retry the acquire immediately; a {@code
+     * false} return causes it to block until signalled by a release,
+     * interrupted, or timed out.  Because the thread has already
+     * arranged to be signalled, a strategy may switch from spinning
+     * to blocking at any time.
+     *
+     * @param sync the synchronizer being acquired
+     * @param spins the number of times this method has previously
+     *        been invoked during the current acquire
+     * @return {@code true} if the thread should retry without blocking
+     */
+    public abstract boolean spin(AbstractOwnableSynchronizer sync, int spins);
+
+    /**
+     * Returns a strategy that always blocks.
+     *
+     * @return the strategy
+     */
+    public static WaitStrategy park() {
+        return PARK;
+    }
+
+    /**
+     * Returns a strategy that never blocks.
+     *
+     * @return the strategy
+     */
+    public static WaitStrategy busySpin() {
+        return BUSY_SPIN;
+    }
+
+    /**
+     * Returns a strategy that retries the given number of times, and
+     * then continues to retry, yielding the processor between
+     * attempts.
+     *
+     * @param spins the number of attempts before yielding
+     * @return the strategy
+     * @throws IllegalArgumentException if {@code spins} is negative
+     */
+    public static WaitStrategy spinThenYield(int spins) {
+        if (spins < 0)
+            throw new IllegalArgumentException();
+        return new SpinThenYield(spins);
+    }
+
+    /**
+     * Returns a strategy that retries the given number of times, and
+     * then blocks.
+     *
+     * @param spins the number of attempts before blocking
+     * @return the strategy
+     * @throws IllegalArgumentException if {@code spins} is negative
+     */
+    public static WaitStrategy spinThenPark(int spins) {
+        if (spins < 0)
+            throw new IllegalArgumentException();
+        return new SpinThenPark(spins);
+    }
+
+    private static final WaitStrategy PARK = new WaitStrategy() {
+        public boolean spin(AbstractOwnableSynchronizer sync, int spins) {
+            return false;
+        }
+        public String toString() {
+            return "WaitStrategy.park";
+        }
+    };
+
+    private static final WaitStrategy BUSY_SPIN = new WaitStrategy() {
+        public boolean spin(AbstractOwnableSynchronizer sync, int spins) {
+            return true;
+        }
+        public String toString() {
+            return "WaitStrategy.busySpin";
+        }
+    };
+
+    static final class SpinThenYield extends WaitStrategy {
+        private final int maxSpins;
+        SpinThenYield(int maxSpins) { this.maxSpins = maxSpins; }
+        public boolean spin(AbstractOwnableSynchronizer sync, int spins) {
+            if (spins >= maxSpins)
+                Thread.yield();
+            return true;
+        }
+        public String toString() {
+            return "WaitStrategy.spinThenYield(" + maxSpins + ")";
+        }
+    }
+
+    static final class SpinThenPark extends WaitStrategy {
+        private final int maxSpins;
+        SpinThenPark(int maxSpins) { this.maxSpins = maxSpins; }
+        public boolean spin(AbstractOwnableSynchronizer sync, int spins) {
+            return spins < maxSpins;
+        }
+        public String toString() {
+            return "WaitStrategy.spinThenPark(" + maxSpins + ")";
+        }
+    }
+}